@@ -1,12 +1,17 @@
 package cs451;
 
+import cs451.agreement.IntSet;
+import cs451.agreement.LatticeAgreement;
+import cs451.broadcast.FifoBroadcast;
+import cs451.links.LinkConfig;
 import cs451.links.PerfectLink;
 import cs451.message.PayloadMessageImpl;
+import cs451.output.OutputWriter;
 
-import java.io.File;
-import java.util.Scanner;
-import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Lorenzo Drudi
@@ -17,6 +22,10 @@ import java.io.IOException;
 /**
  * To execute:
  * ./run.sh --id 1 --hosts ../example/hosts --output ../example/output.txt ../example/configs/perfect-links.config
+ * ./run.sh --id 1 --hosts ../example/hosts --output ../example/output.txt ../example/configs/fifo-broadcast.config
+ * ./run.sh --id 1 --hosts ../example/hosts --output ../example/output.txt ../example/configs/lattice-agreement-1.config
+ * The application is chosen by the config: "m i" runs the perfect links, "m" the FIFO broadcast,
+ * "p vs ds" (followed by the proposals) the lattice agreement.
  */
 
 public class Main {
@@ -24,35 +33,26 @@ public class Main {
     // To be able to use them they should be static.
     private static long timeInit;         // time of the first send
     private static PerfectLink pLink;     // perfect link abstraction
-    private static FileWriter writer;     // file writer to write to the output file
+    private static FifoBroadcast fifo;    // FIFO broadcast abstraction
+    private static LatticeAgreement agreement; // multi-shot lattice agreement abstraction
+    private static OutputWriter writer;   // asynchronous writer of the output file
+    private static final ShutdownCoordinator shutdown = new ShutdownCoordinator(); // stops everything on a signal
 
     private static void printDeliver(final int seqNum, final int senderId) {
-        try {
-            writer.write("d " + senderId + " " + seqNum + "\n");
-        } catch (IOException e) {
-            System.out.println("Delivering: Error writing to output file.\n");
-            System.exit(1);
-        }
+        Main.writer.deliver(senderId, seqNum);
+    }
+
+    private static void printDecision(final int slot, final IntSet decision) {
+        final var values = decision.toArray();
+        Main.writer.decide(values, values.length);
     }
 
     private static void handleSignal() {
         System.out.println("Stop: " + (System.currentTimeMillis() - Main.timeInit) + " ms\n");
 
-        //immediately stop network packet processing
-        System.out.println("Immediately stopping network packet processing.");
-
-        //close all connections
-        Main.pLink.close();
-
-        // write/flush output file
-        System.out.println("Writing output.");
-
-        try {
-            Main.writer.flush();
-            Main.writer.close();
-        } catch (IOException e) {
-            System.out.println("Error closing output file");
-        }
+        // Immediately stop network packet processing, then write/flush the output file.
+        System.out.println("Immediately stopping network packet processing and writing output.");
+        Main.shutdown.shutdown();
     }
 
     private static void initSignalHandlers() {
@@ -64,6 +64,101 @@ public class Main {
         });
     }
 
+    private static void runPerfectLinks(final Parser parser, final int myPort, final int numMessages,
+        final int receiverId) {
+        System.out.print("PerfectLink is ready to send messages.\n");
+        System.out.println("Broadcasting and delivering messages...\n");
+
+        // Set up PerfectLink
+        Main.pLink = new PerfectLink(parser.myId(), myPort, parser.hosts(), Main::printDeliver);
+        Main.shutdown.addNetwork(Main.pLink::close);
+
+        // Start the timer
+        Main.timeInit = System.currentTimeMillis();
+
+        // If the process is not the receiver, broadcast messages
+        if (parser.myId() != receiverId) {
+            // Broadcast messages
+            for (int i = 1; i <= numMessages; i++) {
+                Main.writer.broadcast(i);
+
+                // Create payload.
+                // Empty since the seq num is in the message id.
+                var payload = new byte[0];
+
+                Main.pLink.send(
+                        new PayloadMessageImpl(
+                                payload,
+                                i,
+                                parser.myId(),
+                                receiverId)
+                );
+            }
+            System.out.println("Broadcast done, waiting for the delivery.\n");
+        }
+    }
+
+    private static void runFifoBroadcast(final Parser parser, final int myPort, final int numMessages) {
+        System.out.print("FifoBroadcast is ready to broadcast messages.\n");
+        System.out.println("Broadcasting and delivering messages...\n");
+
+        // Set up FifoBroadcast
+        final var window = Integer.getInteger("cs451.broadcastWindow", FifoBroadcast.DEFAULT_WINDOW);
+        Main.fifo = new FifoBroadcast(parser.myId(), myPort, parser.hosts(), Main::printDeliver, window,
+                new LinkConfig());
+        Main.shutdown.addNetwork(Main.fifo::close);
+
+        // Start the timer
+        Main.timeInit = System.currentTimeMillis();
+
+        // Broadcast messages: it waits whenever this process is a window ahead of its own deliveries.
+        for (int i = 1; i <= numMessages; i++) {
+            Main.writer.broadcast(i);
+
+            // Empty payload since the seq num is in the message id.
+            Main.fifo.broadcast(new PayloadMessageImpl(new byte[0], i, parser.myId(), 0));
+        }
+        System.out.println("Broadcast done, waiting for the delivery.\n");
+    }
+
+    private static void runLatticeAgreement(final Parser parser, final int myPort, final BufferedReader config,
+        final int numProposals, final int maxDistinct) {
+        System.out.print("LatticeAgreement is ready to propose.\n");
+        System.out.println("Proposing and deciding...\n");
+
+        // Set up LatticeAgreement
+        final var window = Integer.getInteger("cs451.agreementWindow", LatticeAgreement.DEFAULT_WINDOW);
+        Main.agreement = new LatticeAgreement(parser.myId(), myPort, parser.hosts(), numProposals, maxDistinct,
+                window, Main::printDecision, new LinkConfig());
+        Main.shutdown.addNetwork(Main.agreement::close);
+
+        // Start the timer
+        Main.timeInit = System.currentTimeMillis();
+
+        // Propose the sets of the config, one per line: it waits whenever this process is a window
+        // ahead of its decisions.
+        try (config) {
+            String line;
+            var values = new int[16];
+            for (int i = 1; i <= numProposals && (line = config.readLine()) != null; i++) {
+                var count = 0;
+                for (var token : line.trim().split("\\s+")) {
+                    if (!token.isEmpty()) {
+                        if (count == values.length) {
+                            values = Arrays.copyOf(values, 2 * count);
+                        }
+                        values[count++] = Integer.parseInt(token);
+                    }
+                }
+                Main.agreement.propose(IntSet.of(values, count));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error reading the proposals.");
+            return;
+        }
+        System.out.println("Proposals done, waiting for the decisions.\n");
+    }
+
     @SuppressWarnings({"InfiniteLoopStatement", "BusyWait"})
     public static void main(String[] args) throws InterruptedException {
         Parser parser = new Parser(args);
@@ -103,19 +198,34 @@ public class Main {
 
         System.out.println("Doing some initialization\n");
 
-        // Read config file
-        int numMessages = 0;
-        int receiverId = 0;
-        try (Scanner scanner = new Scanner(new File(parser.config()))) {
-            scanner.useDelimiter(" |\\n");
-            numMessages = scanner.nextInt();
-            System.out.println("Number of messages to broadcast: " + numMessages);
-            receiverId = scanner.nextInt();
-            System.out.println("Receiver Id: " + receiverId + "\n");
-        } catch (IOException e) {
+        // Read the first line of the config file: "m i" for the perfect links, "m" for the FIFO broadcast,
+        // "p vs ds" for the lattice agreement (the proposals follow, they are read while proposing).
+        BufferedReader config = null;
+        int[] header = null;
+        try {
+            config = new BufferedReader(new FileReader(parser.config()));
+            final var tokens = config.readLine().trim().split("\\s+");
+            header = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                header[i] = Integer.parseInt(tokens[i]);
+            }
+            if (header.length != 3) {
+                config.close();
+            }
+        } catch (IOException | RuntimeException e) {
             System.out.println("Error reading config file.");
             System.exit(1);
         }
+        if (header.length == 3) {
+            System.out.println("Number of proposals: " + header[0]);
+            System.out.println("Maximum size of a proposal: " + header[1]);
+            System.out.println("Maximum number of distinct values: " + header[2] + "\n");
+        } else {
+            System.out.println("Number of messages to broadcast: " + header[0]);
+            if (header.length == 2) {
+                System.out.println("Receiver Id: " + header[1] + "\n");
+            }
+        }
 
         // If the process is not in the hosts file, exit
         if (myPort == -1) {
@@ -124,45 +234,19 @@ public class Main {
         }
 
         try {
-            writer = new FileWriter(parser.output());
+            writer = new OutputWriter(parser.output());
+            Main.shutdown.setOutput(writer);
         } catch (IOException e) {
             System.out.println("Error opening output file.");
             System.exit(1);
         }
 
-        System.out.print("PerfectLink is ready to send messages.\n");
-        System.out.println("Broadcasting and delivering messages...\n");
-
-        // Set up PerfectLink
-        Main.pLink = new PerfectLink(parser.myId(), myPort, parser.hosts(), Main::printDeliver);
-
-        // Start the timer
-        Main.timeInit = System.currentTimeMillis();
-        
-        // If the process is not the receiver, broadcast messages
-        if (parser.myId() != receiverId) {
-            // Broadcast messages
-            for (int i = 1; i <= numMessages; i++) {
-                try {
-                    Main.writer.write("b " + i + "\n");
-                } catch (IOException e) {
-                    System.out.println("Broadcasting: Error writing to output file.\n");
-                    System.exit(1);
-                }
-
-                // Create payload.
-                // Empty since the seq num is in the message id.
-                var payload = new byte[0];
-
-                Main.pLink.send(
-                        new PayloadMessageImpl(
-                                payload,
-                                i,
-                                parser.myId(),
-                                receiverId)
-                );
-            }
-            System.out.println("Broadcast done, waiting for the delivery.\n");
+        if (header.length == 3) {
+            Main.runLatticeAgreement(parser, myPort, config, header[0], header[2]);
+        } else if (header.length == 1) {
+            Main.runFifoBroadcast(parser, myPort, header[0]);
+        } else {
+            Main.runPerfectLinks(parser, myPort, header[0], header[1]);
         }
 
         // After a process finishes broadcasting,
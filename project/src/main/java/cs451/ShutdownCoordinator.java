@@ -0,0 +1,120 @@
+package cs451;
+
+import cs451.output.OutputWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinator of the shutdown of the process on SIGTERM or SIGINT.
+ * The shutdown is done in three steps, each bounded in time:
+ * 1) the output is sealed, so nothing handled after the signal is logged;
+ * 2) the network is stopped: the threads of the links are interrupted, without waiting for them;
+ * 3) the output is flushed: the background writer keeps the backlog to a few chunks,
+ *    so only the last chunks are left to write.
+ * The time from the signal to the flushed output is reported, with a warning past {@link #DEADLINE}.
+ * The components can be registered at any time: if the shutdown already started, they are stopped right away.
+ */
+public class ShutdownCoordinator {
+
+    /**
+     * Expected maximum time from the signal to the flushed output.
+     */
+    public static final long DEADLINE = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final List<Runnable> networkStops; // stop the network components, in registration order
+    private OutputWriter output;
+    private boolean shutdown;                  // true once the shutdown started
+
+    /**
+     * Constructor of {@link ShutdownCoordinator}.
+     */
+    public ShutdownCoordinator() {
+        this.networkStops = new ArrayList<>();
+        this.output = null;
+        this.shutdown = false;
+    }
+
+    /**
+     * Register the output of the process.
+     *
+     * @param output: the output writer, sealed and flushed at shutdown.
+     */
+    public void setOutput(final OutputWriter output) {
+        synchronized (this) {
+            if (!this.shutdown) {
+                this.output = output;
+                return;
+            }
+        }
+        ShutdownCoordinator.flush(output);
+    }
+
+    /**
+     * Register a network component.
+     *
+     * @param stop: the action that stops the component (e.g. closing a link).
+     */
+    public void addNetwork(final Runnable stop) {
+        synchronized (this) {
+            if (!this.shutdown) {
+                this.networkStops.add(stop);
+                return;
+            }
+        }
+        stop.run();
+    }
+
+    /**
+     * Shut down the registered components and report the time taken by every step.
+     * Only the first call does something.
+     */
+    public void shutdown() {
+        final OutputWriter output;
+        final List<Runnable> networkStops;
+        synchronized (this) {
+            if (this.shutdown) {
+                return;
+            }
+            this.shutdown = true;
+            output = this.output;
+            networkStops = new ArrayList<>(this.networkStops);
+        }
+        final var start = System.nanoTime();
+        if (output != null) {
+            output.seal();
+        }
+        final var sealed = System.nanoTime();
+        for (var stop : networkStops) {
+            stop.run();
+        }
+        final var stopped = System.nanoTime();
+        if (output != null) {
+            ShutdownCoordinator.flush(output);
+        }
+        final var flushed = System.nanoTime();
+        System.out.println("Shutdown: output sealed in " + TimeUnit.NANOSECONDS.toMicros(sealed - start) + " us,"
+                + " network stopped in " + TimeUnit.NANOSECONDS.toMicros(stopped - sealed) + " us,"
+                + " output flushed in " + TimeUnit.NANOSECONDS.toMicros(flushed - stopped) + " us"
+                + (output != null ? " (" + output.getBytesWritten() + " bytes written)" : "")
+                + ", total " + TimeUnit.NANOSECONDS.toMillis(flushed - start) + " ms.");
+        if (flushed - start > ShutdownCoordinator.DEADLINE) {
+            System.out.println("Shutdown: deadline of " + TimeUnit.NANOSECONDS.toMillis(ShutdownCoordinator.DEADLINE)
+                    + " ms exceeded.");
+        }
+    }
+
+    /*
+     * Write everything left in the output and close it.
+     */
+    private static void flush(final OutputWriter output) {
+        try {
+            output.close();
+        } catch (IOException e) {
+            System.out.println("Error closing output file");
+        }
+    }
+
+}
@@ -0,0 +1,17 @@
+package cs451.agreement;
+
+/**
+ * Callback called by the lattice agreement for every decision, in slot order.
+ */
+@FunctionalInterface
+public interface DecideCallback {
+
+    /**
+     * Decide the value of a slot.
+     *
+     * @param slot:     the slot, starting from 1.
+     * @param decision: the decided set, it must not be modified.
+     */
+    void decide(int slot, IntSet decision);
+
+}
@@ -0,0 +1,602 @@
+package cs451.agreement;
+
+import cs451.packet.PacketUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Set of non-negative ints, without boxing.
+ * It has two representations, chosen by density like the containers of a Roaring bitmap:
+ * - array:  the values sorted in an int[] (4 bytes per value), for sparse sets;
+ * - bitmap: a bitmap of 64-bit words over the range of the values, once it has at least {@link #BITMAP_DENSITY}
+ *           values per word (at most 2 bytes per value). It goes back to an array below one value per word.
+ * Unlike Roaring, the representation is chosen for the whole set instead of for every 2^16 values: the values
+ * of the proposals are drawn from the whole int range, where such chunks would hold a single value each.
+ * The union, subset, equality and difference walk both sets once and work in place: the merges of the arrays
+ * reuse a spare buffer, so a set that stops growing stops allocating.
+ * The encoding is compact and direct: the array is written as varint deltas, the bitmap as its words.
+ * It is not thread safe.
+ */
+public final class IntSet {
+
+    private static final int KIND_ARRAY = 0;
+    private static final int KIND_BITMAP = 1;
+    private static final int BITMAP_DENSITY = 4;  // values per word above which an array becomes a bitmap
+    private static final int MIN_BITMAP_SIZE = 64; // smaller sets are always arrays
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] values;  // array: the values, sorted, in [0, size)
+    private int[] spare;   // array: buffer of the merges, swapped with the values
+    private long[] words;  // bitmap: bit i of word w is the value base + 64 * w + i, null if an array
+    private int base;      // bitmap: value of the first bit, a multiple of 64
+    private int numWords;  // bitmap: number of words in use
+    private int size;
+
+    /**
+     * Constructor of an empty {@link IntSet}.
+     */
+    public IntSet() {
+        this.values = new int[IntSet.INITIAL_CAPACITY];
+        this.spare = null;
+        this.words = null;
+        this.size = 0;
+    }
+
+    /**
+     * Constructor of a copy of an {@link IntSet}.
+     *
+     * @param other: the set to copy.
+     */
+    public IntSet(final IntSet other) {
+        this();
+        this.setTo(other);
+    }
+
+    /**
+     * Create a set from some values.
+     *
+     * @param values: the buffer holding the values, non-negative, in any order and possibly repeated.
+     * @param count:  the number of values.
+     * @return The set.
+     */
+    public static IntSet of(final int[] values, final int count) {
+        final var set = new IntSet();
+        final var sorted = Arrays.copyOf(values, Math.max(count, 1));
+        Arrays.sort(sorted, 0, count);
+        var size = 0;
+        for (var i = 0; i < count; i++) {
+            IntSet.checkValue(sorted[i]);
+            if (size == 0 || sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        set.values = sorted;
+        set.size = size;
+        set.optimize();
+        return set;
+    }
+
+    /**
+     * Get the number of values.
+     *
+     * @return The size of the set.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Add every value of another set (union).
+     *
+     * @param other: the other set.
+     * @return True if the set changed, false otherwise.
+     */
+    public boolean addAll(final IntSet other) {
+        if (other.size == 0) {
+            return false;
+        }
+        final var oldSize = this.size;
+        if (this.size == 0) {
+            this.setTo(other);
+            return true;
+        }
+        // Choose the representation of the union from its range and an upper bound of its size.
+        final var low = Math.min(this.min(), other.min());
+        final var high = Math.max(this.max(), other.max());
+        if (IntSet.isDense(this.size + other.size, low, high)) {
+            if (this.words == null) {
+                this.toBitmap(low, high);
+            } else {
+                this.ensureRange(low, high);
+            }
+            this.orInto(other);
+        } else {
+            if (this.words != null) {
+                this.toArrayMode();
+            }
+            if (other.words == null) {
+                this.merge(other.values, other.size);
+            } else {
+                this.merge(other.toArray(), other.size);
+            }
+        }
+        this.optimize();
+        return this.size != oldSize;
+    }
+
+    /**
+     * Check if every value of another set is in this set (the other set is a subset of this one).
+     *
+     * @param other: the other set.
+     * @return True if the other set is a subset of this one, false otherwise.
+     */
+    public boolean containsAll(final IntSet other) {
+        if (other.size > this.size) {
+            return false;
+        }
+        if (other.size == 0) {
+            return true;
+        }
+        if (this.words != null && other.words != null) {
+            for (var i = 0; i < other.numWords; i++) {
+                final var word = other.words[i];
+                if (word == 0) {
+                    continue;
+                }
+                final var index = ((long) other.base - this.base) / Long.SIZE + i;
+                if (index < 0 || index >= this.numWords || (word & ~this.words[(int) index]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (other.words != null) {
+            return this.containsAllSorted(other.toArray(), other.size);
+        }
+        if (this.words != null) {
+            for (var i = 0; i < other.size; i++) {
+                if (!this.contains(other.values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return this.containsAllSorted(other.values, other.size);
+    }
+
+    /**
+     * Remove every value of another set (difference).
+     *
+     * @param other: the other set.
+     * @return True if the set changed, false otherwise.
+     */
+    public boolean removeAll(final IntSet other) {
+        if (this.size == 0 || other.size == 0) {
+            return false;
+        }
+        final var oldSize = this.size;
+        if (this.words == null) {
+            var kept = 0;
+            for (var i = 0; i < this.size; i++) {
+                if (!other.contains(this.values[i])) {
+                    this.values[kept++] = this.values[i];
+                }
+            }
+            this.size = kept;
+        } else if (other.words == null) {
+            for (var i = 0; i < other.size; i++) {
+                this.clearBit(other.values[i]);
+            }
+        } else {
+            for (var i = 0; i < other.numWords; i++) {
+                final var index = ((long) other.base - this.base) / Long.SIZE + i;
+                if (index >= 0 && index < this.numWords) {
+                    final var word = this.words[(int) index];
+                    this.words[(int) index] = word & ~other.words[i];
+                    this.size -= Long.bitCount(word & other.words[i]);
+                }
+            }
+        }
+        this.optimize();
+        return this.size != oldSize;
+    }
+
+    /**
+     * Replace the values with the ones of another set, reusing the buffers of this set when possible.
+     *
+     * @param other: the other set.
+     */
+    public void setTo(final IntSet other) {
+        if (other == this) {
+            return;
+        }
+        this.size = other.size;
+        if (other.words == null) {
+            this.words = null;
+            if (this.values.length < other.size) {
+                this.values = new int[other.size];
+            }
+            System.arraycopy(other.values, 0, this.values, 0, other.size);
+            return;
+        }
+        if (this.words == null || this.words.length < other.numWords) {
+            this.words = new long[other.numWords];
+        }
+        System.arraycopy(other.words, 0, this.words, 0, other.numWords);
+        this.base = other.base;
+        this.numWords = other.numWords;
+    }
+
+    /**
+     * Get the values in ascending order.
+     *
+     * @return A new array with the values.
+     */
+    public int[] toArray() {
+        if (this.words == null) {
+            return Arrays.copyOf(this.values, this.size);
+        }
+        final var result = new int[this.size];
+        var count = 0;
+        for (var i = 0; i < this.numWords; i++) {
+            var word = this.words[i];
+            while (word != 0) {
+                result[count++] = this.base + i * Long.SIZE + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of bytes of the encoding of the set (see {@link #encode(ByteBuffer)}).
+     *
+     * @return The size of the encoding in bytes, at most 5 bytes per value plus 5 bytes.
+     */
+    public int encodedSize() {
+        final var arraySize = this.arrayEncodedSize();
+        return this.words == null ? arraySize : Math.min(arraySize, this.bitmapEncodedSize());
+    }
+
+    /**
+     * Write the set: [size and kind (varint)] followed by either the values as deltas (varints) for an array,
+     * or [first word index (varint)] [number of words (varint)] [words (8 bytes each)] for a bitmap.
+     * A bitmap is written as an array when that is shorter (e.g. after a difference left it sparse),
+     * so the encoding never takes more than 5 bytes per value.
+     *
+     * @param buffer: the buffer to write to, with at least {@link #encodedSize()} bytes left.
+     */
+    public void encode(final ByteBuffer buffer) {
+        if (this.words != null && this.bitmapEncodedSize() < this.arrayEncodedSize()) {
+            final var first = this.firstWord();
+            final var last = this.lastWord();
+            PacketUtils.putVarInt(buffer, this.size << 1 | IntSet.KIND_BITMAP);
+            PacketUtils.putVarInt(buffer, (this.base >>> 6) + first);
+            PacketUtils.putVarInt(buffer, last - first + 1);
+            for (var i = first; i <= last; i++) {
+                buffer.putLong(this.words[i]);
+            }
+            return;
+        }
+        PacketUtils.putVarInt(buffer, this.size << 1 | IntSet.KIND_ARRAY);
+        var previous = 0;
+        if (this.words == null) {
+            for (var i = 0; i < this.size; i++) {
+                PacketUtils.putVarInt(buffer, this.values[i] - previous);
+                previous = this.values[i];
+            }
+            return;
+        }
+        for (var i = 0; i < this.numWords; i++) {
+            var word = this.words[i];
+            while (word != 0) {
+                final var value = this.base + i * Long.SIZE + Long.numberOfTrailingZeros(word);
+                PacketUtils.putVarInt(buffer, value - previous);
+                previous = value;
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * Read a set written by {@link #encode(ByteBuffer)}, moving the position of the buffer past it.
+     *
+     * @param buffer: the buffer to read from.
+     * @return The set.
+     */
+    public static IntSet decode(final ByteBuffer buffer) {
+        final var header = PacketUtils.getVarInt(buffer);
+        final var set = new IntSet();
+        set.size = header >>> 1;
+        if ((header & 1) == IntSet.KIND_ARRAY) {
+            set.values = new int[Math.max(set.size, 1)];
+            var value = 0;
+            for (var i = 0; i < set.size; i++) {
+                value += PacketUtils.getVarInt(buffer);
+                set.values[i] = value;
+            }
+            return set;
+        }
+        set.base = PacketUtils.getVarInt(buffer) << 6;
+        set.numWords = PacketUtils.getVarInt(buffer);
+        set.words = new long[set.numWords];
+        for (var i = 0; i < set.numWords; i++) {
+            set.words[i] = buffer.getLong();
+        }
+        return set;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IntSet)) {
+            return false;
+        }
+        final var other = (IntSet) o;
+        return this.size == other.size && this.containsAll(other);
+    }
+
+    @Override
+    public int hashCode() {
+        // The values are listed in ascending order whatever the representation.
+        return Arrays.hashCode(this.toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.toArray());
+    }
+
+    private static void checkValue(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Only non-negative values are supported: " + value);
+        }
+    }
+
+    /*
+     * Check if the set contains a value.
+     */
+    private boolean contains(final int value) {
+        if (this.words == null) {
+            return Arrays.binarySearch(this.values, 0, this.size, value) >= 0;
+        }
+        final var offset = (long) value - this.base;
+        return offset >= 0 && offset < (long) this.numWords * Long.SIZE
+                && (this.words[(int) (offset >>> 6)] & (1L << offset)) != 0;
+    }
+
+    /*
+     * Size of the encoding of the set as an array, whatever its representation.
+     */
+    private int arrayEncodedSize() {
+        var encodedSize = PacketUtils.varIntSize(this.size << 1 | IntSet.KIND_ARRAY);
+        var previous = 0;
+        if (this.words == null) {
+            for (var i = 0; i < this.size; i++) {
+                encodedSize += PacketUtils.varIntSize(this.values[i] - previous);
+                previous = this.values[i];
+            }
+            return encodedSize;
+        }
+        for (var i = 0; i < this.numWords; i++) {
+            var word = this.words[i];
+            while (word != 0) {
+                final var value = this.base + i * Long.SIZE + Long.numberOfTrailingZeros(word);
+                encodedSize += PacketUtils.varIntSize(value - previous);
+                previous = value;
+                word &= word - 1;
+            }
+        }
+        return encodedSize;
+    }
+
+    /*
+     * Size of the encoding of the set as a bitmap: only the words between the first and the last value.
+     */
+    private int bitmapEncodedSize() {
+        final var first = this.firstWord();
+        final var count = this.lastWord() - first + 1;
+        return PacketUtils.varIntSize(this.size << 1 | IntSet.KIND_BITMAP)
+                + PacketUtils.varIntSize((this.base >>> 6) + first) + PacketUtils.varIntSize(count) + count * Long.BYTES;
+    }
+
+    /*
+     * Check if a bitmap would have at least BITMAP_DENSITY values per word over a range.
+     */
+    private static boolean isDense(final int size, final int low, final int high) {
+        return size >= IntSet.MIN_BITMAP_SIZE && size >= IntSet.BITMAP_DENSITY * ((high >>> 6) - (low >>> 6) + 1);
+    }
+
+    /*
+     * Switch to the representation fitting the density of the set.
+     */
+    private void optimize() {
+        if (this.words == null) {
+            if (this.size > 0 && IntSet.isDense(this.size, this.values[0], this.values[this.size - 1])) {
+                this.toBitmap(this.values[0], this.values[this.size - 1]);
+            }
+        } else if (this.size < this.numWords) {
+            this.toArrayMode();
+        }
+    }
+
+    /*
+     * Switch from an array to a bitmap covering a range (which must include the values).
+     */
+    private void toBitmap(final int low, final int high) {
+        this.base = low & ~(Long.SIZE - 1);
+        this.numWords = (high >>> 6) - (low >>> 6) + 1;
+        this.words = new long[this.numWords];
+        for (var i = 0; i < this.size; i++) {
+            final var offset = this.values[i] - this.base;
+            this.words[offset >>> 6] |= 1L << offset;
+        }
+    }
+
+    /*
+     * Grow the range of the bitmap to include a range of values.
+     */
+    private void ensureRange(final int low, final int high) {
+        final var newBase = Math.min(this.base, low & ~(Long.SIZE - 1));
+        final var newNumWords = Math.max((this.base >>> 6) + this.numWords, (high >>> 6) + 1) - (newBase >>> 6);
+        if (newBase == this.base && newNumWords == this.numWords) {
+            return;
+        }
+        final var shift = (this.base - newBase) >>> 6;
+        if (newNumWords > this.words.length) {
+            final var newWords = new long[Math.max(newNumWords, 2 * this.words.length)];
+            System.arraycopy(this.words, 0, newWords, shift, this.numWords);
+            this.words = newWords;
+        } else if (shift > 0) {
+            System.arraycopy(this.words, 0, this.words, shift, this.numWords);
+            Arrays.fill(this.words, 0, shift, 0L);
+        }
+        Arrays.fill(this.words, shift + this.numWords, newNumWords, 0L);
+        this.base = newBase;
+        this.numWords = newNumWords;
+    }
+
+    /*
+     * Add the values of another set to the bitmap, whose range must include them.
+     */
+    private void orInto(final IntSet other) {
+        if (other.words == null) {
+            for (var i = 0; i < other.size; i++) {
+                this.setBit(other.values[i]);
+            }
+            return;
+        }
+        // Only the words between the first and the last value of the other set are within the range.
+        final var shift = (other.base - this.base) >> 6;
+        final var last = other.lastWord();
+        long word;
+        for (var i = other.firstWord(); i <= last; i++) {
+            word = this.words[shift + i];
+            this.words[shift + i] = word | other.words[i];
+            this.size += Long.bitCount(other.words[i] & ~word);
+        }
+    }
+
+    private void setBit(final int value) {
+        final var offset = value - this.base;
+        final var word = this.words[offset >>> 6];
+        if ((word & (1L << offset)) == 0) {
+            this.words[offset >>> 6] = word | (1L << offset);
+            this.size++;
+        }
+    }
+
+    private void clearBit(final int value) {
+        final var offset = (long) value - this.base;
+        if (offset < 0 || offset >= (long) this.numWords * Long.SIZE) {
+            return;
+        }
+        final var index = (int) (offset >>> 6);
+        if ((this.words[index] & (1L << offset)) != 0) {
+            this.words[index] &= ~(1L << offset);
+            this.size--;
+        }
+    }
+
+    /*
+     * Switch from a bitmap to an array.
+     */
+    private void toArrayMode() {
+        if (this.values.length < this.size) {
+            this.values = new int[this.size];
+        }
+        var count = 0;
+        for (var i = 0; i < this.numWords; i++) {
+            var word = this.words[i];
+            while (word != 0) {
+                this.values[count++] = this.base + i * Long.SIZE + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        this.words = null;
+    }
+
+    /*
+     * Merge sorted values into the array, through the spare buffer.
+     */
+    private void merge(final int[] other, final int otherSize) {
+        if (this.spare == null || this.spare.length < this.size + otherSize) {
+            this.spare = new int[Math.max(this.size + otherSize, 2 * this.values.length)];
+        }
+        final var result = this.spare;
+        var i = 0;
+        var j = 0;
+        var count = 0;
+        while (i < this.size && j < otherSize) {
+            final var a = this.values[i];
+            final var b = other[j];
+            if (a <= b) {
+                result[count++] = a;
+                i++;
+                if (a == b) {
+                    j++;
+                }
+            } else {
+                result[count++] = b;
+                j++;
+            }
+        }
+        while (i < this.size) {
+            result[count++] = this.values[i++];
+        }
+        while (j < otherSize) {
+            result[count++] = other[j++];
+        }
+        this.spare = this.values;
+        this.values = result;
+        this.size = count;
+    }
+
+    /*
+     * Check if the array contains sorted values, walking both at once.
+     */
+    private boolean containsAllSorted(final int[] other, final int otherSize) {
+        var i = 0;
+        for (var j = 0; j < otherSize; j++) {
+            final var b = other[j];
+            while (i < this.size && this.values[i] < b) {
+                i++;
+            }
+            if (i == this.size || this.values[i] != b) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    private int min() {
+        return this.words == null ? this.values[0] : this.base + Long.SIZE * this.firstWord()
+                + Long.numberOfTrailingZeros(this.words[this.firstWord()]);
+    }
+
+    private int max() {
+        return this.words == null ? this.values[this.size - 1] : this.base + Long.SIZE * this.lastWord()
+                + Long.SIZE - 1 - Long.numberOfLeadingZeros(this.words[this.lastWord()]);
+    }
+
+    private int firstWord() {
+        var i = 0;
+        while (i < this.numWords - 1 && this.words[i] == 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private int lastWord() {
+        var i = this.numWords - 1;
+        while (i > 0 && this.words[i] == 0) {
+            i--;
+        }
+        return i;
+    }
+
+}
@@ -0,0 +1,283 @@
+package cs451.agreement;
+
+import cs451.Host;
+import cs451.links.DeliverCallback;
+import cs451.links.LinkConfig;
+import cs451.links.PerfectLink;
+import cs451.message.Message;
+import cs451.message.PayloadMessageImpl;
+import cs451.packet.Packet;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Multi-shot lattice agreement: a single-shot lattice agreement ({@link LatticeInstance}) runs in every slot.
+ * It is characterized by the following properties, in every slot:
+ * 1) Validity:    Let a process decide the set O for a proposed set I: I is a subset of O,
+ *                 and every element of O was proposed by some process.
+ * 2) Consistency: The sets decided by any two processes are comparable (one is a subset of the other).
+ * 3) Termination: Every correct process eventually decides.
+ * The slots are pipelined: a process proposes up to a window of slots ahead of its last decision
+ * (see {@link #DEFAULT_WINDOW}), so the round trips of the slots overlap instead of adding up.
+ * The proposals, acks and nacks of all the slots are messages of a single {@link PerfectLink} (the id of a message
+ * is its slot), so the messages of the active slots to a peer share its packets.
+ * The acks, nacks and new rounds are sent by the receiving thread of the link without blocking
+ * ({@link PerfectLink#post} and {@link PerfectLink#relay}),
+ * and the decisions are handed to the callback in slot order, whatever the order in which they are reached.
+ * Every process answers the proposals of every slot, even after deciding it: the others may still need it.
+ * It adds no thread to the ones of the link.
+ */
+public class LatticeAgreement {
+
+    /**
+     * Default maximum number of slots proposed by a process and not decided yet.
+     * It can be overridden at launch with the system property cs451.agreementWindow.
+     */
+    public static final int DEFAULT_WINDOW = 64;
+
+    private static final byte PROPOSAL = 0;        // [type] [proposal number] [set]
+    private static final byte ACK = 1;             // [type] [proposal number]
+    private static final byte NACK = 2;            // [type] [proposal number] [set of the values missing]
+    private static final int HEADER_SIZE = 1 + Integer.BYTES;
+    private static final int MAX_VAR_INT_SIZE = 5;
+    private static final int PACKET_OVERHEAD = 96; // headers of a packet carrying a single message
+
+    private final int myId;
+    private final int quorum;                      // number of answers needed in a round (a majority)
+    private final int window;                      // maximum number of slots proposed and not decided yet
+    private final LatticeInstance[] instances;     // state of every slot
+    private final IntSet[] decisions;              // decisions not handed to the callback yet, guarded by this
+    private final DecideCallback decideCallback;
+    private volatile PerfectLink pLink;            // set once created, guarded by this while being created
+    private int nextSlot;                          // next slot to propose, only used by the proposing thread
+    private int nextDecision;                      // next slot to hand to the callback, guarded by this
+
+    /**
+     * Constructor of {@link LatticeAgreement}.
+     * The packets to the peers are made big enough for the largest set (see maxDistinct), where they are not already.
+     *
+     * @param myId:           the id of the host.
+     * @param port:           the port to listen to.
+     * @param hosts:          the list of hosts.
+     * @param numSlots:       the number of slots (proposals of every process).
+     * @param maxDistinct:    the maximum number of distinct values across all the proposals.
+     * @param window:         the maximum number of slots proposed and not decided yet.
+     * @param decideCallback: callback called for every decision, in slot order.
+     * @param config:         the tunable parameters of the links.
+     */
+    public LatticeAgreement(final int myId, final int port, final List<Host> hosts, final int numSlots,
+        final int maxDistinct, final int window, final DecideCallback decideCallback, final LinkConfig config) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("The window must be positive.");
+        }
+        this.myId = myId;
+        this.quorum = hosts.size() / 2 + 1;
+        this.window = window;
+        this.instances = new LatticeInstance[numSlots];
+        for (var i = 0; i < numSlots; i++) {
+            this.instances[i] = new LatticeInstance();
+        }
+        this.decisions = new IntSet[numSlots];
+        this.decideCallback = decideCallback;
+        this.nextSlot = 1;
+        this.nextDecision = 1;
+        // A nack can carry every distinct value: it must fit in a packet (a set takes at most 5 bytes per value,
+        // as varints, and its header).
+        final var packetSize = Math.min(Packet.MAX_PACKET_SIZE, LatticeAgreement.HEADER_SIZE
+                + LatticeAgreement.MAX_VAR_INT_SIZE * (1 + maxDistinct) + LatticeAgreement.PACKET_OVERHEAD);
+        // Only the peers whose packets are too small get bigger ones: the others keep the size of their path.
+        for (var host : hosts) {
+            if (config.getPacketSize(host) < packetSize) {
+                config.setPacketSize(host, packetSize);
+            }
+        }
+        // The link delivers packets as soon as it is created, possibly before it is assigned:
+        // the answers wait for it on the lock (see getLink()).
+        synchronized (this) {
+            this.pLink = new PerfectLink(myId, port, hosts, new DeliverCallback() {
+                @Override
+                public void deliver(final int messageId, final int senderId) {
+                    LatticeAgreement.this.receive(messageId, senderId, null, 0, 0);
+                }
+
+                @Override
+                public void deliver(final int messageId, final int senderId, final byte[] data, final int offset,
+                    final int length) {
+                    LatticeAgreement.this.receive(messageId, senderId, data, offset, length);
+                }
+            }, config);
+        }
+    }
+
+    /**
+     * Propose a set in the next slot, waiting until the slot is within the window.
+     * If interrupted while waiting, nothing is proposed and the interrupt status is set.
+     *
+     * @param proposal: the proposed set.
+     */
+    public void propose(final IntSet proposal) {
+        final var slot = this.nextSlot;
+        if (slot > this.instances.length) {
+            throw new IllegalStateException("Every slot was already proposed.");
+        }
+        synchronized (this) {
+            try {
+                while (slot - this.nextDecision >= this.window) {
+                    this.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        this.nextSlot++;
+        final var instance = this.instances[slot - 1];
+        final IntSet decision;
+        Message message = null;
+        synchronized (instance) {
+            instance.propose(proposal);
+            this.startRound(instance);
+            decision = this.advance(instance);
+            if (decision == null) {
+                message = this.encode(LatticeAgreement.PROPOSAL, slot, instance.getProposalNumber(),
+                        instance.getProposed(), 0);
+            }
+        }
+        if (message != null) {
+            this.getLink().broadcast(message);
+        }
+        if (decision != null) {
+            this.decided(slot, decision);
+        }
+    }
+
+    /**
+     * Close the agreement and the link below it.
+     */
+    public void close() {
+        this.getLink().close();
+    }
+
+    /*
+     * Handle a message received from the link: answer a proposal, or count an ack or a nack.
+     */
+    private void receive(final int slot, final int senderId, final byte[] data, final int offset, final int length) {
+        if (slot < 1 || slot > this.instances.length || length < LatticeAgreement.HEADER_SIZE) {
+            return;
+        }
+        final var buffer = ByteBuffer.wrap(data, offset, length);
+        final var type = buffer.get();
+        final var proposalNumber = buffer.getInt();
+        final var instance = this.instances[slot - 1];
+        IntSet decision = null;
+        Message message = null;
+        synchronized (instance) {
+            if (type == LatticeAgreement.PROPOSAL) {
+                final var proposal = IntSet.decode(buffer);
+                if (instance.accept(proposal)) {
+                    message = this.encode(LatticeAgreement.ACK, slot, proposalNumber, null, senderId);
+                } else {
+                    // The proposer merges the nack into a superset of its proposal: the missing values are enough.
+                    final var missing = new IntSet(instance.getAccepted());
+                    missing.removeAll(proposal);
+                    message = this.encode(LatticeAgreement.NACK, slot, proposalNumber, missing, senderId);
+                }
+            } else {
+                final var round = instance.getProposalNumber();
+                if (type == LatticeAgreement.ACK) {
+                    instance.ack(proposalNumber);
+                } else {
+                    instance.nack(proposalNumber, IntSet.decode(buffer));
+                }
+                decision = this.advance(instance);
+                if (decision == null && instance.getProposalNumber() != round) {
+                    message = this.encode(LatticeAgreement.PROPOSAL, slot, instance.getProposalNumber(),
+                            instance.getProposed(), 0);
+                }
+            }
+        }
+        // The answers go back to the proposer, the new rounds to everyone.
+        if (message != null && type == LatticeAgreement.PROPOSAL) {
+            this.getLink().post(message);
+        } else if (message != null) {
+            this.getLink().relay(message);
+        }
+        if (decision != null) {
+            this.decided(slot, decision);
+        }
+    }
+
+    /*
+     * Start a round of the proposer: this process answers its own proposal right away.
+     * Called with the lock of the instance held.
+     */
+    private void startRound(final LatticeInstance instance) {
+        final var proposalNumber = instance.newRound();
+        if (instance.accept(instance.getProposed())) {
+            instance.ack(proposalNumber);
+        } else {
+            instance.nack(proposalNumber, instance.getAccepted());
+        }
+    }
+
+    /*
+     * Start new rounds as long as the answers ask for it.
+     * Return the decision if the instance decided, null otherwise.
+     * Called with the lock of the instance held.
+     */
+    private IntSet advance(final LatticeInstance instance) {
+        int outcome;
+        while ((outcome = instance.check(this.quorum)) == LatticeInstance.RETRY) {
+            this.startRound(instance);
+        }
+        if (outcome != LatticeInstance.DECIDED) {
+            return null;
+        }
+        final var decision = instance.getProposed();
+        instance.clearProposed();
+        return decision;
+    }
+
+    /*
+     * Record the decision of a slot and hand the decisions to the callback in slot order.
+     */
+    private synchronized void decided(final int slot, final IntSet decision) {
+        this.decisions[slot - 1] = decision;
+        while (this.nextDecision <= this.decisions.length && this.decisions[this.nextDecision - 1] != null) {
+            this.decideCallback.decide(this.nextDecision, this.decisions[this.nextDecision - 1]);
+            this.decisions[this.nextDecision - 1] = null;
+            this.nextDecision++;
+        }
+        this.notifyAll();
+    }
+
+    /*
+     * Encode a message of a slot: the type, the proposal number and, unless it is an ack, the set.
+     */
+    private Message encode(final byte type, final int slot, final int proposalNumber, final IntSet values,
+        final int receiverId) {
+        final var size = LatticeAgreement.HEADER_SIZE + (values == null ? 0 : values.encodedSize());
+        final var buffer = ByteBuffer.allocate(size);
+        buffer.put(type);
+        buffer.putInt(proposalNumber);
+        if (values != null) {
+            values.encode(buffer);
+        }
+        return new PayloadMessageImpl(buffer.array(), slot, this.myId, receiverId);
+    }
+
+    /*
+     * Get the link, waiting for the constructor to create it.
+     */
+    private PerfectLink getLink() {
+        var link = this.pLink;
+        if (link == null) {
+            synchronized (this) {
+                link = this.pLink;
+            }
+        }
+        return link;
+    }
+
+}
@@ -0,0 +1,161 @@
+package cs451.agreement;
+
+/**
+ * State of a single-shot lattice agreement (a slot of the multi-shot one), on both sides:
+ * - acceptor: the set accepted so far, acked if a proposal contains it, otherwise merged with the proposal
+ *             and sent back in a nack;
+ * - proposer: the set proposed in the current round, with the acks and nacks of the round. The round is
+ *             decided once acked by a majority, and restarts with the merged set if a majority answered
+ *             and at least one answer was a nack.
+ * It is not thread safe: it is guarded by its own lock in {@link LatticeAgreement}.
+ */
+class LatticeInstance {
+
+    /**
+     * Outcome of a round: still waiting for answers.
+     */
+    static final int WAITING = 0;
+    /**
+     * Outcome of a round: the proposed set is decided.
+     */
+    static final int DECIDED = 1;
+    /**
+     * Outcome of a round: a new round must start with the merged set.
+     */
+    static final int RETRY = 2;
+
+    private final IntSet accepted; // acceptor: set accepted so far
+    private IntSet proposed;        // proposer: set of the current round, null if not proposing
+    private boolean active;        // proposer: true until decided
+    private int proposalNumber;    // proposer: number of the current round
+    private int acks;              // proposer: acks of the current round
+    private int nacks;             // proposer: nacks of the current round
+
+    /**
+     * Constructor of {@link LatticeInstance}.
+     */
+    LatticeInstance() {
+        this.accepted = new IntSet();
+        this.proposed = null;
+        this.active = false;
+        this.proposalNumber = 0;
+        this.acks = 0;
+        this.nacks = 0;
+    }
+
+    /**
+     * Start proposing a set.
+     *
+     * @param proposal: the proposed set.
+     */
+    void propose(final IntSet proposal) {
+        this.proposed = new IntSet(proposal);
+        this.active = true;
+    }
+
+    /**
+     * Start a new round with the current proposed set.
+     *
+     * @return The number of the new round.
+     */
+    int newRound() {
+        this.proposalNumber++;
+        this.acks = 0;
+        this.nacks = 0;
+        return this.proposalNumber;
+    }
+
+    /**
+     * Acceptor: handle a proposal.
+     *
+     * @param proposal: the proposed set.
+     * @return True if the proposal is acked, false if nacked (the merged set is {@link #getAccepted()}).
+     */
+    boolean accept(final IntSet proposal) {
+        if (proposal.containsAll(this.accepted)) {
+            this.accepted.setTo(proposal);
+            return true;
+        }
+        this.accepted.addAll(proposal);
+        return false;
+    }
+
+    /**
+     * Proposer: handle an ack.
+     *
+     * @param proposalNumber: the round acked.
+     */
+    void ack(final int proposalNumber) {
+        if (this.active && proposalNumber == this.proposalNumber) {
+            this.acks++;
+        }
+    }
+
+    /**
+     * Proposer: handle a nack, merging the set of the acceptor.
+     *
+     * @param proposalNumber: the round nacked.
+     * @param accepted:       the set accepted by the acceptor.
+     */
+    void nack(final int proposalNumber, final IntSet accepted) {
+        if (this.active && proposalNumber == this.proposalNumber) {
+            this.proposed.addAll(accepted);
+            this.nacks++;
+        }
+    }
+
+    /**
+     * Proposer: check the outcome of the current round. Once decided, the instance stops proposing.
+     *
+     * @param quorum: the number of answers needed (a majority).
+     * @return {@link #WAITING}, {@link #DECIDED} or {@link #RETRY}.
+     */
+    int check(final int quorum) {
+        if (!this.active) {
+            return LatticeInstance.WAITING;
+        }
+        if (this.acks >= quorum) {
+            this.active = false;
+            return LatticeInstance.DECIDED;
+        }
+        if (this.nacks > 0 && this.acks + this.nacks >= quorum) {
+            return LatticeInstance.RETRY;
+        }
+        return LatticeInstance.WAITING;
+    }
+
+    /**
+     * Get the set accepted so far.
+     *
+     * @return The accepted set.
+     */
+    IntSet getAccepted() {
+        return this.accepted;
+    }
+
+    /**
+     * Get the set proposed in the current round (the decision once decided).
+     *
+     * @return The proposed set, null if not proposing.
+     */
+    IntSet getProposed() {
+        return this.proposed;
+    }
+
+    /**
+     * Get the number of the current round.
+     *
+     * @return The proposal number.
+     */
+    int getProposalNumber() {
+        return this.proposalNumber;
+    }
+
+    /**
+     * Forget the proposer state once the decision is handed over: only the acceptor keeps answering.
+     */
+    void clearProposed() {
+        this.proposed = null;
+    }
+
+}
@@ -0,0 +1,60 @@
+package cs451.broadcast;
+
+import cs451.Host;
+import cs451.links.DeliverCallback;
+import cs451.links.LinkConfig;
+import cs451.links.PerfectLink;
+import cs451.message.Message;
+
+import java.util.List;
+
+/**
+ * Best-effort broadcast abstraction.
+ * It is characterized by the following properties:
+ * 1) Validity:       If a correct process broadcasts a message m, then every correct process eventually delivers m.
+ * 2) No duplication: No message is delivered more than once.
+ * 3) No creation:    If a process delivers a message m with sender s, then m was previously broadcast by process s.
+ * A message is sent to the other hosts through a single {@link PerfectLink}: the same message object is queued
+ * for every peer and its payload is written straight into their packets, so the cost of a broadcast grows with
+ * the datagrams sent, not with copies of the message. The message is delivered to the broadcaster right away.
+ * It implements the {@link Broadcast} interface.
+ */
+public class BestEffortBroadcast implements Broadcast {
+
+    private final int myId;
+    private final PerfectLink pLink;
+    private final DeliverCallback deliverCallback;
+
+    /**
+     * Constructor of {@link BestEffortBroadcast}.
+     *
+     * @param myId:            the id of the host.
+     * @param port:            the port to listen to.
+     * @param hosts:           the list of hosts.
+     * @param deliverCallback: callback called for every message delivered, with its payload.
+     *                         It can be called by more than one thread (the broadcaster delivers its own messages).
+     * @param config:          the tunable parameters of the links.
+     */
+    public BestEffortBroadcast(final int myId, final int port, final List<Host> hosts,
+        final DeliverCallback deliverCallback, final LinkConfig config) {
+        this.myId = myId;
+        this.deliverCallback = deliverCallback;
+        this.pLink = new PerfectLink(myId, port, hosts, deliverCallback, config);
+    }
+
+    @Override
+    public void broadcast(final Message message) {
+        this.pLink.broadcast(message);
+        final var payload = message.getPayload();
+        final var lastId = message.getId() + message.getNumIds() - 1;
+        for (int id = message.getId(); id <= lastId; id++) {
+            this.deliverCallback.deliver(id, this.myId, payload, 0, payload.length);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.pLink.close();
+    }
+
+}
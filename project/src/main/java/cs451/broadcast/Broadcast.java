@@ -0,0 +1,22 @@
+package cs451.broadcast;
+
+import cs451.message.Message;
+
+/**
+ * Interface for the abstraction of a broadcast: a message is sent to every process, itself included.
+ */
+interface Broadcast {
+
+    /**
+     * Broadcast a message.
+     *
+     * @param message: the message to broadcast (its receiver id is ignored).
+     */
+    void broadcast(Message message);
+
+    /**
+     * Close the broadcast and the links below it.
+     */
+    void close();
+
+}
@@ -0,0 +1,140 @@
+package cs451.broadcast;
+
+import cs451.Host;
+import cs451.links.DeliverCallback;
+import cs451.links.LinkConfig;
+import cs451.message.Message;
+
+import java.util.List;
+
+/**
+ * FIFO broadcast abstraction, on top of a {@link UniformReliableBroadcast}.
+ * It is characterized by the properties of the uniform reliable broadcast, plus:
+ * 5) FIFO delivery: If some process broadcasts message m1 before it broadcasts message m2,
+ *                   then no correct process delivers m2 unless it has already delivered m1.
+ * The sequence numbers of the messages of every broadcaster are consecutive, starting from 1.
+ * For every origin there is a "next expected" sequence number: a message arriving ahead of it waits in the
+ * {@link ReorderRing} of the origin, and a message filling the gap is delivered together with the run of
+ * consecutive messages after it, in a single pass.
+ * The broadcaster only runs a window ahead of its own deliveries (see {@link #DEFAULT_WINDOW}): the memory of the
+ * layers below (messages in flight, reorder rings) is bounded by the window, not by the messages broadcast.
+ * It adds no thread to the ones of the link and implements the {@link Broadcast} interface.
+ */
+public class FifoBroadcast implements Broadcast {
+
+    /**
+     * Default maximum number of messages broadcast by a process and not delivered by itself yet.
+     * It can be overridden at launch with the system property cs451.broadcastWindow.
+     */
+    public static final int DEFAULT_WINDOW = 4096;
+
+    private final int myId;
+    private final int window;               // maximum number of own messages not delivered yet
+    private final ReorderRing[] reorder;    // messages arrived out of order, by origin
+    private final DeliverCallback deliverCallback;
+    private final UniformReliableBroadcast urb;
+    private int ownDelivered;               // last own message delivered, guarded by this
+
+    /**
+     * Constructor of {@link FifoBroadcast}.
+     *
+     * @param myId:            the id of the host.
+     * @param port:            the port to listen to.
+     * @param hosts:           the list of hosts.
+     * @param deliverCallback: callback called for every message delivered, with the sequence number, the origin
+     *                         and the payload. The messages of an origin are delivered one at a time, in order.
+     *                         It can be called by more than one thread.
+     * @param window:          the maximum number of messages broadcast and not delivered by this process yet.
+     * @param config:          the tunable parameters of the links.
+     */
+    public FifoBroadcast(final int myId, final int port, final List<Host> hosts,
+        final DeliverCallback deliverCallback, final int window, final LinkConfig config) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("The window must be positive.");
+        }
+        this.myId = myId;
+        this.window = window;
+        this.reorder = new ReorderRing[hosts.size()];
+        for (var i = 0; i < this.reorder.length; i++) {
+            this.reorder[i] = new ReorderRing(window);
+        }
+        this.deliverCallback = deliverCallback;
+        this.ownDelivered = 0;
+        this.urb = new UniformReliableBroadcast(myId, port, hosts, new DeliverCallback() {
+            @Override
+            public void deliver(final int messageId, final int senderId) {
+                FifoBroadcast.this.receive(messageId, senderId, null, 0, 0);
+            }
+
+            @Override
+            public void deliver(final int messageId, final int senderId, final byte[] data, final int offset,
+                final int length) {
+                FifoBroadcast.this.receive(messageId, senderId, data, offset, length);
+            }
+        }, config);
+    }
+
+    /**
+     * Broadcast a message, waiting until it fits in the window.
+     * The ids of the message are its sequence numbers: they must follow the ones of the previous message.
+     * If interrupted while waiting, the message is not broadcast and the interrupt status is set.
+     *
+     * @param message: the message to broadcast (its receiver id is ignored), at most a window of ids.
+     */
+    @Override
+    public void broadcast(final Message message) {
+        if (message.getNumIds() > this.window) {
+            throw new IllegalArgumentException("A message cannot have more ids than the window (" + this.window + ").");
+        }
+        final var lastSeq = message.getId() + message.getNumIds() - 1;
+        synchronized (this) {
+            try {
+                while (lastSeq - this.ownDelivered > this.window) {
+                    this.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        this.urb.broadcast(message);
+    }
+
+    @Override
+    public void close() {
+        this.urb.close();
+    }
+
+    /*
+     * Handle a message delivered by the uniform reliable broadcast: deliver it with the run of
+     * consecutive messages after it if it is the next expected one, otherwise keep it for later.
+     */
+    private void receive(final int seq, final int origin, final byte[] data, final int offset, final int length) {
+        final var ring = this.reorder[origin - 1];
+        final int lastDelivered;
+        synchronized (ring) {
+            if (seq != ring.getNext()) {
+                ring.put(seq, data, offset, length);
+                return;
+            }
+            // The message in hand is delivered straight from the slice, without a copy.
+            this.deliverCallback.deliver(seq, origin, data, offset, length);
+            ring.skipNext();
+            int next;
+            byte[] payload;
+            while (ring.hasNext()) {
+                next = ring.getNext();
+                payload = ring.takeNext();
+                this.deliverCallback.deliver(next, origin, payload, 0, payload.length);
+            }
+            lastDelivered = ring.getNext() - 1;
+        }
+        if (origin == this.myId) {
+            synchronized (this) {
+                this.ownDelivered = Math.max(this.ownDelivered, lastDelivered);
+                this.notifyAll();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package cs451.broadcast;
+
+import java.util.Arrays;
+
+/**
+ * State of the messages of a single origin that are not delivered yet, indexed by sequence number.
+ * Every message has a bitset of the processes that acknowledged it (ceil(n / 64) words), a few flags and,
+ * if it has one, a copy of its payload. The slots are a ring buffer indexed by (seq mod ring size) above
+ * a "delivered up to" base: a slot is reclaimed as soon as the base moves past it, and the messages below
+ * the base are known to be delivered. The ring grows (doubling) if a message arrives too far above the base.
+ * The sequence numbers start from 1. It is not thread safe.
+ */
+class PendingRing {
+
+    private static final byte SEEN = 1;      // the message was received (and relayed)
+    private static final byte DELIVERED = 2; // the message was delivered
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final int words;   // number of words of a bitset
+    private int mask;
+    private long[] acks;       // bitset of the acknowledging processes of each slot, words longs per slot
+    private byte[] flags;
+    private byte[][] payloads; // payload of each slot, null if empty
+    private int base;          // lowest sequence number not delivered
+
+    /**
+     * Constructor of {@link PendingRing}.
+     *
+     * @param numProcesses: the number of processes.
+     * @param capacity:     the initial number of slots, rounded up to a power of 2.
+     */
+    PendingRing(final int numProcesses, final int capacity) {
+        var size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.words = (numProcesses + Long.SIZE - 1) / Long.SIZE;
+        this.mask = size - 1;
+        this.acks = new long[size * this.words];
+        this.flags = new byte[size];
+        this.payloads = new byte[size][];
+        this.base = 1;
+    }
+
+    /**
+     * Check if a message was delivered.
+     *
+     * @param seq: the sequence number of the message.
+     * @return True if the message was delivered, false otherwise.
+     */
+    boolean isDelivered(final int seq) {
+        return seq < this.base || (seq - this.base <= this.mask && (this.flags[seq & this.mask] & PendingRing.DELIVERED) != 0);
+    }
+
+    /**
+     * Mark a message as received, keeping a copy of its payload.
+     *
+     * @param seq:    the sequence number of the message, not delivered yet.
+     * @param data:   the buffer holding the payload.
+     * @param offset: the offset of the payload in the buffer.
+     * @param length: the length of the payload.
+     * @return True if the message was received for the first time, false otherwise.
+     */
+    boolean markSeen(final int seq, final byte[] data, final int offset, final int length) {
+        this.ensureCapacity(seq);
+        final var slot = seq & this.mask;
+        if ((this.flags[slot] & PendingRing.SEEN) != 0) {
+            return false;
+        }
+        this.flags[slot] |= PendingRing.SEEN;
+        this.payloads[slot] = length == 0 ? null : Arrays.copyOfRange(data, offset, offset + length);
+        return true;
+    }
+
+    /**
+     * Add a process to the acknowledging processes of a message.
+     *
+     * @param seq:       the sequence number of the message, received and not delivered yet.
+     * @param processId: the id of the process.
+     * @return The number of processes that acknowledged the message.
+     */
+    int ack(final int seq, final int processId) {
+        final var first = (seq & this.mask) * this.words;
+        this.acks[first + (processId - 1) / Long.SIZE] |= 1L << ((processId - 1) % Long.SIZE);
+        var count = 0;
+        for (var i = 0; i < this.words; i++) {
+            count += Long.bitCount(this.acks[first + i]);
+        }
+        return count;
+    }
+
+    /**
+     * Get the payload of a message.
+     *
+     * @param seq: the sequence number of the message, received and not delivered yet.
+     * @return The payload (an empty array if the message has none).
+     */
+    byte[] getPayload(final int seq) {
+        final var payload = this.payloads[seq & this.mask];
+        return payload == null ? PendingRing.EMPTY_PAYLOAD : payload;
+    }
+
+    /**
+     * Mark a message as delivered, and reclaim the slots of the messages delivered right above the base.
+     *
+     * @param seq: the sequence number of the message, received and not delivered yet.
+     */
+    void markDelivered(final int seq) {
+        this.flags[seq & this.mask] |= PendingRing.DELIVERED;
+        int slot;
+        while ((this.flags[slot = this.base & this.mask] & PendingRing.DELIVERED) != 0) {
+            this.flags[slot] = 0;
+            this.payloads[slot] = null;
+            Arrays.fill(this.acks, slot * this.words, (slot + 1) * this.words, 0L);
+            this.base++;
+        }
+    }
+
+    /**
+     * Get the lowest sequence number not delivered.
+     *
+     * @return The base of the ring.
+     */
+    int getBase() {
+        return this.base;
+    }
+
+    /*
+     * Grow the ring until the slot of the message is above the base.
+     */
+    private void ensureCapacity(final int seq) {
+        if (seq - this.base <= this.mask) {
+            return;
+        }
+        var size = this.mask + 1;
+        while (seq - this.base >= size) {
+            size <<= 1;
+        }
+        final var newMask = size - 1;
+        final var newAcks = new long[size * this.words];
+        final var newFlags = new byte[size];
+        final var newPayloads = new byte[size][];
+        for (var s = this.base; s <= this.base + this.mask; s++) {
+            final var oldSlot = s & this.mask;
+            final var newSlot = s & newMask;
+            System.arraycopy(this.acks, oldSlot * this.words, newAcks, newSlot * this.words, this.words);
+            newFlags[newSlot] = this.flags[oldSlot];
+            newPayloads[newSlot] = this.payloads[oldSlot];
+        }
+        this.mask = newMask;
+        this.acks = newAcks;
+        this.flags = newFlags;
+        this.payloads = newPayloads;
+    }
+
+}
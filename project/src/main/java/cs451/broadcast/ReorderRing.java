@@ -0,0 +1,115 @@
+package cs451.broadcast;
+
+import java.util.Arrays;
+
+/**
+ * Messages of a single origin that arrived ahead of the next one to deliver in FIFO order.
+ * The slots are a ring buffer indexed by (seq mod ring size) above the next expected sequence number, sized after
+ * the window of the broadcasters: a broadcaster only runs that far ahead of its own deliveries, so the ring
+ * normally never fills. A message arriving beyond it (e.g. a process lagging behind the majority) grows the ring
+ * instead of being dropped. The sequence numbers start from 1. It is not thread safe.
+ */
+class ReorderRing {
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private int mask;
+    private boolean[] present; // true if the message of the slot arrived
+    private byte[][] payloads; // payload of each slot, null if empty
+    private int next;          // next sequence number to deliver
+
+    /**
+     * Constructor of {@link ReorderRing}.
+     *
+     * @param capacity: the initial number of slots, rounded up to a power of 2.
+     */
+    ReorderRing(final int capacity) {
+        var size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.present = new boolean[size];
+        this.payloads = new byte[size][];
+        this.next = 1;
+    }
+
+    /**
+     * Store a message that arrived ahead of the next one to deliver, keeping a copy of its payload.
+     *
+     * @param seq:    the sequence number of the message, greater than the next one to deliver.
+     * @param data:   the buffer holding the payload.
+     * @param offset: the offset of the payload in the buffer.
+     * @param length: the length of the payload.
+     */
+    void put(final int seq, final byte[] data, final int offset, final int length) {
+        this.ensureCapacity(seq);
+        final var slot = seq & this.mask;
+        this.present[slot] = true;
+        this.payloads[slot] = length == 0 ? null : Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    /**
+     * Check if the next message to deliver arrived.
+     *
+     * @return True if it is stored in the ring, false otherwise.
+     */
+    boolean hasNext() {
+        return this.present[this.next & this.mask];
+    }
+
+    /**
+     * Take the payload of the next message to deliver, freeing its slot, and move to the following one.
+     * The next message must have arrived (see {@link #hasNext()}).
+     *
+     * @return The payload (an empty array if the message has none).
+     */
+    byte[] takeNext() {
+        final var slot = this.next & this.mask;
+        final var payload = this.payloads[slot];
+        this.present[slot] = false;
+        this.payloads[slot] = null;
+        this.next++;
+        return payload == null ? ReorderRing.EMPTY_PAYLOAD : payload;
+    }
+
+    /**
+     * Skip the next message to deliver, delivered without going through the ring.
+     */
+    void skipNext() {
+        this.next++;
+    }
+
+    /**
+     * Get the next sequence number to deliver.
+     *
+     * @return The next expected sequence number.
+     */
+    int getNext() {
+        return this.next;
+    }
+
+    /*
+     * Grow the ring until the slot of the message is above the next one to deliver.
+     */
+    private void ensureCapacity(final int seq) {
+        if (seq - this.next <= this.mask) {
+            return;
+        }
+        var size = this.mask + 1;
+        while (seq - this.next >= size) {
+            size <<= 1;
+        }
+        final var newMask = size - 1;
+        final var newPresent = new boolean[size];
+        final var newPayloads = new byte[size][];
+        for (var s = this.next; s <= this.next + this.mask; s++) {
+            newPresent[s & newMask] = this.present[s & this.mask];
+            newPayloads[s & newMask] = this.payloads[s & this.mask];
+        }
+        this.mask = newMask;
+        this.present = newPresent;
+        this.payloads = newPayloads;
+    }
+
+}
@@ -0,0 +1,180 @@
+package cs451.broadcast;
+
+import cs451.Host;
+import cs451.links.DeliverCallback;
+import cs451.links.LinkConfig;
+import cs451.links.PerfectLink;
+import cs451.message.Message;
+import cs451.message.PayloadMessageImpl;
+import cs451.message.RangeMessageImpl;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform reliable broadcast abstraction (majority-ack algorithm).
+ * It is characterized by the following properties:
+ * 1) Validity:           If a correct process broadcasts a message m, then every correct process eventually delivers m.
+ * 2) No duplication:     No message is delivered more than once.
+ * 3) No creation:        If a process delivers a message m with sender s, then m was previously broadcast by process s.
+ * 4) Uniform agreement:  If a message m is delivered by some process (whether correct or faulty),
+ *                        then m is eventually delivered by every correct process.
+ * A process relays every message the first time it receives it, and delivers it once a majority of the processes
+ * relayed it (the broadcaster included): receiving a relay from a process is its ack.
+ * The ids on the wire pack the origin with the sequence number (see {@link #packId(int, int)}), so the relays of
+ * consecutive messages of an origin still merge into ranges. The acks of every message are a bitset in the
+ * {@link PendingRing} of its origin, whose slot is reclaimed as soon as the message is delivered: the relays
+ * arriving afterwards fall below the "delivered up to" base of the ring and are dropped, so the memory is bounded
+ * by the messages in flight, not by the messages broadcast.
+ * Relays are sent by the receiving thread of the link with {@link PerfectLink#relay(Message)}, which never blocks,
+ * otherwise the thread could wait for a window that only the acks it handles can open. The messages broadcast
+ * wait for room in the bounded broadcast buffers of the link, which bounds the relays they trigger.
+ * It adds no thread to the ones of the link and implements the {@link Broadcast} interface.
+ */
+public class UniformReliableBroadcast implements Broadcast {
+
+    /**
+     * Number of bits of the sequence number in a packed id.
+     */
+    public static final int SEQ_BITS = 24;
+    /**
+     * Maximum sequence number of a message.
+     */
+    public static final int MAX_SEQ = (1 << UniformReliableBroadcast.SEQ_BITS) - 1;
+
+    private static final int RING_CAPACITY = 256; // initial number of slots of a ring
+
+    private final int myId;
+    private final int majority;              // number of acks needed to deliver a message
+    private final PendingRing[] pending;     // messages not delivered yet, by origin
+    private final DeliverCallback deliverCallback;
+    private volatile PerfectLink pLink;      // set once created, guarded by this while being created
+
+    /**
+     * Constructor of {@link UniformReliableBroadcast}.
+     *
+     * @param myId:            the id of the host.
+     * @param port:            the port to listen to.
+     * @param hosts:           the list of hosts.
+     * @param deliverCallback: callback called for every message delivered, with the sequence number, the origin
+     *                         and the payload. The messages of an origin are delivered one at a time, but not
+     *                         necessarily in order. It can be called by more than one thread.
+     * @param config:          the tunable parameters of the links.
+     */
+    public UniformReliableBroadcast(final int myId, final int port, final List<Host> hosts,
+        final DeliverCallback deliverCallback, final LinkConfig config) {
+        this.myId = myId;
+        this.majority = hosts.size() / 2 + 1;
+        this.pending = new PendingRing[hosts.size()];
+        for (var i = 0; i < this.pending.length; i++) {
+            this.pending[i] = new PendingRing(hosts.size(), UniformReliableBroadcast.RING_CAPACITY);
+        }
+        this.deliverCallback = deliverCallback;
+        // The link delivers packets as soon as it is created, possibly before it is assigned:
+        // the relays wait for it on the lock (see getLink()).
+        synchronized (this) {
+            this.pLink = new PerfectLink(myId, port, hosts, new DeliverCallback() {
+            @Override
+            public void deliver(final int messageId, final int senderId) {
+                    UniformReliableBroadcast.this.receive(messageId, senderId, null, 0, 0);
+                }
+
+                @Override
+                public void deliver(final int messageId, final int senderId, final byte[] data, final int offset,
+                    final int length) {
+                    UniformReliableBroadcast.this.receive(messageId, senderId, data, offset, length);
+                }
+            }, config);
+        }
+    }
+
+    /**
+     * Broadcast a message.
+     * The ids of the message are its sequence numbers, from 1 to {@link #MAX_SEQ}.
+     *
+     * @param message: the message to broadcast (its receiver id is ignored).
+     */
+    @Override
+    public void broadcast(final Message message) {
+        final var payload = message.getPayload();
+        final var lastSeq = message.getId() + message.getNumIds() - 1;
+        if (message.getId() < 1 || lastSeq > UniformReliableBroadcast.MAX_SEQ) {
+            throw new IllegalArgumentException("Sequence numbers must be between 1 and " + UniformReliableBroadcast.MAX_SEQ + ".");
+        }
+        for (var seq = message.getId(); seq <= lastSeq; seq++) {
+            this.accept(this.myId, seq, this.myId, payload, 0, payload.length);
+        }
+        final var packedId = UniformReliableBroadcast.packId(this.myId, message.getId());
+        this.pLink.broadcast(message.getNumIds() == 1
+            ? new PayloadMessageImpl(payload, packedId, this.myId, 0)
+            : new RangeMessageImpl(packedId, message.getNumIds(), this.myId, 0));
+    }
+
+    @Override
+    public void close() {
+        this.pLink.close();
+    }
+
+    /**
+     * Pack the origin and the sequence number of a message into the id sent on the wire.
+     *
+     * @param origin: the id of the process that broadcast the message.
+     * @param seq:    the sequence number of the message.
+     * @return The packed id.
+     */
+    public static int packId(final int origin, final int seq) {
+        return (origin - 1) << UniformReliableBroadcast.SEQ_BITS | seq;
+    }
+
+    /*
+     * Handle a message (or a relay) received from the link: relay it the first time it is seen.
+     */
+    private void receive(final int packedId, final int senderId, final byte[] data, final int offset, final int length) {
+        final var origin = (packedId >>> UniformReliableBroadcast.SEQ_BITS) + 1;
+        final var seq = packedId & UniformReliableBroadcast.MAX_SEQ;
+        if (this.accept(origin, seq, senderId, data, offset, length)) {
+            // A fresh copy: the payload slice belongs to the link.
+            final var payload = length == 0 ? new byte[0] : Arrays.copyOfRange(data, offset, offset + length);
+            this.getLink().relay(new PayloadMessageImpl(payload, packedId, this.myId, 0));
+        }
+    }
+
+    /*
+     * Get the link, waiting for the constructor to create it.
+     */
+    private PerfectLink getLink() {
+        var link = this.pLink;
+        if (link == null) {
+            synchronized (this) {
+                link = this.pLink;
+            }
+        }
+        return link;
+    }
+
+    /*
+     * Record the ack of a process for a message, delivering the message once acked by a majority.
+     * The first time the message is seen, it is acked by this process too.
+     * Return true if the message was seen for the first time (it must be relayed).
+     */
+    private boolean accept(final int origin, final int seq, final int senderId, final byte[] data, final int offset,
+        final int length) {
+        final var ring = this.pending[origin - 1];
+        synchronized (ring) {
+            if (ring.isDelivered(seq)) {
+                return false;
+            }
+            final var seen = ring.markSeen(seq, data, offset, length);
+            if (seen) {
+                ring.ack(seq, this.myId);
+            }
+            if (ring.ack(seq, senderId) >= this.majority) {
+                final var payload = ring.getPayload(seq);
+                this.deliverCallback.deliver(seq, origin, payload, 0, payload.length);
+                ring.markDelivered(seq);
+            }
+            return seen;
+        }
+    }
+
+}
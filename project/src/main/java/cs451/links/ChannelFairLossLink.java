@@ -0,0 +1,185 @@
+package cs451.links;
+
+import cs451.Host;
+import cs451.message.Message;
+import cs451.packet.Packet;
+import cs451.packet.PacketView;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * FairLossLink implementation on top of NIO {@link DatagramChannel}s.
+ * The packets are sent from a direct buffer, while every worker receives into a heap buffer wrapping the array
+ * parsed by its packet view, as the payloads are handed to the callbacks as slices of byte arrays. The JDK still
+ * receives a datagram into a temporary direct buffer and copies it into the heap buffer: the receive path saves
+ * the allocations, not that copy.
+ * It has the same properties of {@link FairLossLink}, but packets can be received and decoded by
+ * multiple worker threads:
+ * - if the OS supports SO_REUSEPORT, every worker owns a channel bound to the same port and the kernel
+ *   spreads the incoming datagrams among them (the datagrams of a given peer always reach the same worker);
+ * - otherwise, all the workers receive from the same channel.
+ * The number of workers is bounded by the thread budget of the process (see {@link LinkConfig#MAX_RECEIVE_WORKERS}).
+ * The deliver callback can therefore be called concurrently by different workers.
+ * It implements the {@link PacketLink} interface.
+ */
+public class ChannelFairLossLink implements PacketLink {
+
+    private final static int MAX_CAPACITY = 8;             // maximum number of payload packets in the send buffer.
+
+    private final DatagramChannel[] channels;             // channels bound to the port, the first one sends
+    private final InetSocketAddress[] addresses;          // address of each host, indexed by id - 1
+    private final ExecutorService executor;
+    private final Consumer<Packet> deliverCallback;       // callback to call when a packet is received.
+    private final SendQueue sendBuffer;                   // buffer of packets to send, acks first.
+
+    /**
+     * Constructor of {@link ChannelFairLossLink}.
+     *
+     * @param port:            the port to listen to.
+     * @param hosts:           the list of hosts.
+     * @param deliverCallback: consumer of packets called every time a packet is received.
+     *                         The packet is a view over the receive buffer: it is only valid during the call.
+     * @param config:          the tunable parameters of the link.
+     */
+    public ChannelFairLossLink(final int port, final Host[] hosts,
+        final Consumer<Packet> deliverCallback, final LinkConfig config) {
+        final var numWorkers = config.getReceiveWorkers();
+        this.deliverCallback = deliverCallback;
+        this.sendBuffer = new SendQueue(ChannelFairLossLink.MAX_CAPACITY);
+        this.addresses = new InetSocketAddress[hosts.length];
+        for (Host h : hosts) {
+            this.addresses[h.getId() - 1] = new InetSocketAddress(h.getIp(), h.getPort());
+        }
+        DatagramChannel[] channels = null;
+        try {
+            channels = ChannelFairLossLink.openChannels(port, numWorkers, config);
+        } catch (IOException e) {
+            System.err.println("ChannelFairLossLink: Could not open channel on port " + port);
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+        this.channels = channels;
+        this.executor = Executors.newFixedThreadPool(numWorkers + 1);
+        for (var i = 0; i < numWorkers; i++) {
+            final var channel = this.channels[i % this.channels.length];
+            this.executor.execute(() -> this.deliver(channel)); // numWorkers threads to deliver packets.
+        }
+        this.executor.execute(this::sendBuffer);                 // one thread to send packets.
+    }
+
+    @Override
+    public void send(final Message message) {
+        throw new UnsupportedOperationException("ChannelFairLossLink sends packets.");
+    }
+
+    @Override
+    public void send(final Packet packet) {
+        try {
+            this.sendBuffer.put(packet);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        // The threads loop until interrupted: interrupt them right away, without waiting for them.
+        this.executor.shutdownNow();
+        for (var channel : this.channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("ChannelFairLossLink: Could not close channel.");
+            }
+        }
+    }
+
+    /*
+     * Open one channel per worker with SO_REUSEPORT if supported, a single shared channel otherwise.
+     */
+    private static DatagramChannel[] openChannels(final int port, final int numWorkers,
+        final LinkConfig config) throws IOException {
+        final var first = DatagramChannel.open();
+        final var reusePort = numWorkers > 1
+                && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        final var channels = new DatagramChannel[reusePort ? numWorkers : 1];
+        channels[0] = first;
+        for (var i = 1; i < channels.length; i++) {
+            channels[i] = DatagramChannel.open();
+        }
+        for (var channel : channels) {
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (config.getSocketReceiveBufferSize() > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getSocketReceiveBufferSize());
+            }
+            if (config.getSocketSendBufferSize() > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSocketSendBufferSize());
+            }
+            channel.bind(new InetSocketAddress(port));
+        }
+        return channels;
+    }
+
+    /*
+     * Every worker owns its receive buffer and its packet view, so receiving does not allocate.
+     * The datagram is copied into the array read by the view. The buffer is handed back when the deliver callback
+     * returns.
+     */
+    private void deliver(final DatagramChannel channel) {
+        final byte[] data = new byte[Packet.MAX_PACKET_SIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final PacketView packet = new PacketView();
+        int length;
+        int offset;
+        int next;
+        while (!Thread.currentThread().isInterrupted()) {
+            buffer.clear();
+            try {
+                channel.receive(buffer);
+            } catch (IOException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            length = buffer.position();
+            // A datagram can carry an ack followed by a payload packet.
+            offset = 0;
+            while (offset < length) {
+                packet.reset(data, offset, length - offset);
+                next = offset + packet.getLength();
+                this.deliverCallback.accept(packet);
+                offset = next;
+            }
+        }
+    }
+
+    /*
+     * The packets are written into a reused direct buffer, so sending does not allocate.
+     */
+    private void sendBuffer() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(Packet.MAX_PACKET_SIZE);
+        final DatagramChannel channel = this.channels[0];
+        Packet packet;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                packet = this.sendBuffer.take();
+                buffer.clear();
+                packet.writeTo(buffer);
+                buffer.flip();
+                channel.send(buffer, this.addresses[packet.getReceiverId() - 1]);
+                packet.setTransmit(true);
+            } catch (IOException | InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+}
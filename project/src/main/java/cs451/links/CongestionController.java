@@ -0,0 +1,112 @@
+package cs451.links;
+
+/**
+ * AIMD congestion window of a single peer, in packets.
+ * It follows the TCP congestion control (RFC 5681), without fast retransmit:
+ * - slow start:          below the slow start threshold, the window grows by one packet per packet acked
+ *                        (it doubles every round trip);
+ * - congestion avoidance: above it, the window grows by one packet per window acked;
+ * - loss:                a packet is considered lost when at least {@link #DUP_THRESHOLD} packets sent after it
+ *                        are selectively acked, the threshold and the window are halved;
+ * - timeout:             a retransmission timeout that was not preceded by a loss halves the threshold and
+ *                        the window restarts from {@link #MIN_WINDOW} in slow start.
+ * The losses of packets sent before the last decrease belong to the same congestion event and are ignored,
+ * so the window is decreased at most once per round trip.
+ * It is not thread safe: it is guarded by the lock of its {@link SendWindow}.
+ */
+class CongestionController {
+
+    static final int INITIAL_WINDOW = 10;
+    static final int MIN_WINDOW = 2;
+    static final int DUP_THRESHOLD = 3;
+
+    private final int maxWindow;   // the window never grows beyond the capacity of the send window
+    private int window;            // congestion window
+    private int threshold;         // slow start threshold
+    private int acked;             // packets acked since the window last grew, in congestion avoidance
+    private int recoveryPoint;     // id of the last packet sent at the last decrease
+
+    /**
+     * Constructor of {@link CongestionController}.
+     *
+     * @param maxWindow: the maximum size of the window.
+     */
+    CongestionController(final int maxWindow) {
+        this.maxWindow = maxWindow;
+        this.window = Math.max(1, Math.min(CongestionController.INITIAL_WINDOW, maxWindow));
+        this.threshold = maxWindow;
+        this.acked = 0;
+        this.recoveryPoint = 0;
+    }
+
+    /**
+     * Grow the window after an ack.
+     *
+     * @param numAcked: the number of packets newly acked.
+     */
+    void ack(final int numAcked) {
+        if (this.window < this.threshold) {
+            this.window = Math.min(this.window + numAcked, this.maxWindow);
+            return;
+        }
+        this.acked += numAcked;
+        while (this.acked >= this.window && this.window < this.maxWindow) {
+            this.acked -= this.window;
+            this.window++;
+        }
+        if (this.window == this.maxWindow) {
+            this.acked = 0;
+        }
+    }
+
+    /**
+     * Halve the window after the loss of a packet.
+     *
+     * @param id:     the id of the lost packet.
+     * @param lastId: the id of the last packet sent.
+     */
+    void loss(final int id, final int lastId) {
+        if (id <= this.recoveryPoint) {
+            return;
+        }
+        this.threshold = Math.max(CongestionController.MIN_WINDOW, this.window / 2);
+        this.window = this.threshold;
+        this.acked = 0;
+        this.recoveryPoint = lastId;
+    }
+
+    /**
+     * Restart from the minimum window after the retransmission timeout of a packet.
+     *
+     * @param id:     the id of the packet retransmitted.
+     * @param lastId: the id of the last packet sent.
+     */
+    void timeout(final int id, final int lastId) {
+        if (id <= this.recoveryPoint) {
+            return;
+        }
+        this.threshold = Math.max(CongestionController.MIN_WINDOW, this.window / 2);
+        this.window = Math.min(CongestionController.MIN_WINDOW, this.maxWindow);
+        this.acked = 0;
+        this.recoveryPoint = lastId;
+    }
+
+    /**
+     * Get the congestion window.
+     *
+     * @return The maximum number of packets in flight allowed by the congestion control.
+     */
+    int getWindow() {
+        return this.window;
+    }
+
+    /**
+     * Get the slow start threshold.
+     *
+     * @return The window size above which the window grows linearly.
+     */
+    int getThreshold() {
+        return this.threshold;
+    }
+
+}
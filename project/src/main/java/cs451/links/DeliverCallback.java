@@ -0,0 +1,32 @@
+package cs451.links;
+
+/**
+ * Callback called by a link for every message it delivers.
+ * The ids are primitive, so delivering a message does not allocate.
+ */
+public interface DeliverCallback {
+
+    /**
+     * Deliver a message.
+     *
+     * @param messageId: the id of the message.
+     * @param senderId:  the id of the sender.
+     */
+    void deliver(int messageId, int senderId);
+
+    /**
+     * Deliver a message with its payload.
+     * The payload is a slice of a buffer of the link: it is only valid during the call.
+     * By default only the ids are delivered.
+     *
+     * @param messageId: the id of the message.
+     * @param senderId:  the id of the sender.
+     * @param data:      the buffer holding the payload.
+     * @param offset:    the offset of the payload in the buffer.
+     * @param length:    the length of the payload.
+     */
+    default void deliver(final int messageId, final int senderId, final byte[] data, final int offset, final int length) {
+        this.deliver(messageId, senderId);
+    }
+
+}
@@ -3,11 +3,11 @@ package cs451.links;
 import cs451.Host;
 import cs451.packet.Packet;
 import cs451.message.Message;
-import cs451.packet.PacketUtils;
-import cs451.packet.PayloadPacketImpl;
+import cs451.packet.PacketView;
 
 import java.net.*;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 
@@ -20,19 +20,18 @@ import java.util.function.Consumer;
 *                         q, then m cannot be delivered an infinite number of times by q.
  * 3) No creation:        If some process q delivers a message m with sender p, then m was previously sent
  *                        to q by process p.
- * It implements the {@link Link} interface.
+ * It implements the {@link PacketLink} interface on top of a blocking {@link DatagramSocket}.
  */
-public class FairLossLink implements Link {
+public class FairLossLink implements PacketLink {
 
     private final static int NUM_THREADS = 2;
-    private final static int MAX_CAPACITY = 8;            // maximum send buffer capacity.
-    private final static int SOCKET_TERMINATION_TIME = 50; // time to wait for the socket to close.
+    private final static int MAX_CAPACITY = 8;            // maximum number of payload packets in the send buffer.
 
-    private final Host[] hosts;
+    private final InetSocketAddress[] addresses;    // address of each host, indexed by id - 1
     private DatagramSocket socket;
     private final ExecutorService executor;
     private final Consumer<Packet> deliverCallback; // callback to call when a packet is received.
-    private final BlockingQueue<Packet> sendBuffer; // buffer of packets to send.
+    private final SendQueue sendBuffer;             // buffer of packets to send, acks first.
 
     /**
      * Constructor of {@link FairLossLink}.
@@ -40,23 +39,29 @@ public class FairLossLink implements Link {
      * @param port:            the port to listen to.
      * @param hosts:           the list of hosts.
      * @param deliverCallback: consumer of packets called every time a packet is received.
+     *                         The packet is a view over the receive buffer: it is only valid during the call.
+     * @param config:          the tunable parameters of the link.
      */
     public FairLossLink(final int port, final Host[] hosts,
-        final Consumer<Packet> deliverCallback) {
+        final Consumer<Packet> deliverCallback, final LinkConfig config) {
         try {
             this.socket = new DatagramSocket(port);
+            if (config.getSocketReceiveBufferSize() > 0) {
+                this.socket.setReceiveBufferSize(config.getSocketReceiveBufferSize());
+            }
+            if (config.getSocketSendBufferSize() > 0) {
+                this.socket.setSendBufferSize(config.getSocketSendBufferSize());
+            }
         } catch (SocketException e) {
             System.err.println("FairLossLink: Could not open socket on port " + port);
             Thread.currentThread().interrupt();
             System.exit(1);
         }
         this.deliverCallback = deliverCallback;
-        this.hosts = new Host[hosts.length];
-        this.sendBuffer = new LinkedBlockingQueue<>(FairLossLink.MAX_CAPACITY);
-        Host h;
-        for (int i = 0; i < hosts.length; i++) {
-            h = hosts[i];
-            this.hosts[h.getId() - 1] = h;
+        this.sendBuffer = new SendQueue(FairLossLink.MAX_CAPACITY);
+        this.addresses = new InetSocketAddress[hosts.length];
+        for (Host h : hosts) {
+            this.addresses[h.getId() - 1] = new InetSocketAddress(h.getIp(), h.getPort());
         }
         this.executor = Executors.newFixedThreadPool(FairLossLink.NUM_THREADS);
         executor.execute(this::deliver);    // one thread to deliver packets.
@@ -68,11 +73,7 @@ public class FairLossLink implements Link {
         throw new UnsupportedOperationException("FairLossLink sends packets.");
     }
 
-    /**
-     * Send a packet.
-     * 
-     * @param packet: the packet to send.
-     */
+    @Override
     public void send(final Packet packet) {
         try {
             this.sendBuffer.put(packet);
@@ -83,57 +84,63 @@ public class FairLossLink implements Link {
 
     @Override
     public void close() {
-        this.executor.shutdown();
-        try {
-            if (!this.executor.awaitTermination(FairLossLink.SOCKET_TERMINATION_TIME, TimeUnit.MILLISECONDS)) {
-                this.executor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            this.executor.shutdownNow();
-        }
+        // The threads loop until interrupted: interrupt them right away, without waiting for them.
+        this.executor.shutdownNow();
         this.socket.close();
     }
 
+    /*
+     * The receive buffer, the datagram and the packet view are reused for every packet,
+     * so receiving does not allocate. The buffer is handed back when the deliver callback returns.
+     */
     private void deliver() {
-        byte[] buf;
-        Packet packet;
-        DatagramPacket datagram;
+        final byte[] buf = new byte[Packet.MAX_PACKET_SIZE];
+        final DatagramPacket datagram = new DatagramPacket(buf, buf.length);
+        final PacketView packet = new PacketView();
+        int offset;
+        int next;
         while (!Thread.currentThread().isInterrupted()) {
-            buf = new byte[PayloadPacketImpl.MAX_PAYLOAD_SIZE];
-            datagram = new DatagramPacket(buf, buf.length);
+            // receive() shrinks the length to the size of the last datagram.
+            datagram.setLength(buf.length);
             try {
                 this.socket.receive(datagram);
             } catch (IOException e) {
                 Thread.currentThread().interrupt();
                 return;
             }
-            packet = PacketUtils.deserialize(datagram.getData());
-            this.deliverCallback.accept(packet);
+            // A datagram can carry an ack followed by a payload packet.
+            offset = 0;
+            while (offset < datagram.getLength()) {
+                packet.reset(buf, offset, datagram.getLength() - offset);
+                next = offset + packet.getLength();
+                this.deliverCallback.accept(packet);
+                offset = next;
+            }
         }
     }
 
+    /*
+     * The packets are written into a reused buffer and sent with a reused datagram,
+     * so sending does not allocate.
+     */
     private void sendBuffer() {
-        Host receiver;
+        final byte[] data = new byte[Packet.MAX_PACKET_SIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final DatagramPacket datagram = new DatagramPacket(data, data.length);
         Packet packet;
-        int receiverId;
-        DatagramPacket datagram;
         while (!Thread.currentThread().isInterrupted()) {
             try {
                 packet = this.sendBuffer.take();
-                receiverId = packet.getReceiverId();
-                receiver = this.hosts[receiverId - 1];
-                datagram = new DatagramPacket(
-                        packet.serialize(),
-                        packet.getLength(),
-                        InetAddress.getByName(receiver.getIp()),
-                        receiver.getPort()
-                );
+                buffer.clear();
+                packet.writeTo(buffer);
+                datagram.setData(data, 0, buffer.position());
+                datagram.setSocketAddress(this.addresses[packet.getReceiverId() - 1]);
                 this.socket.send(datagram);
                 packet.setTransmit(true);
             } catch (IOException | InterruptedException e) {
                 Thread.currentThread().interrupt();
                 return;
-            } 
+            }
         }
     }
 
@@ -17,6 +17,7 @@ interface Link {
 
     /**
      * Close the link.
+     * Its threads are interrupted right away, without waiting for them to terminate.
      */
     void close();
 
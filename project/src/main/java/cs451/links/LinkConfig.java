@@ -0,0 +1,545 @@
+package cs451.links;
+
+import cs451.Host;
+import cs451.packet.Packet;
+import cs451.packet.SelectiveAckPacketImpl;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tunable parameters of the link abstractions.
+ * Every parameter starts from its default value, which can be overridden at launch with the
+ * corresponding system property (e.g. -Dcs451.sendWindow=4096) or later with its setter.
+ */
+public class LinkConfig {
+
+    /**
+     * Default maximum number of packets in flight (sent and not yet acknowledged) to each peer.
+     */
+    public static final int DEFAULT_SEND_WINDOW = 256;
+    /**
+     * Default number of packets accepted above the cumulative ack from each peer.
+     * It is advertised to the peers as credits: it bounds what they send.
+     */
+    public static final int DEFAULT_RECEIVE_WINDOW = 256;
+    /**
+     * Default transport of the fair-loss link.
+     */
+    public static final Transport DEFAULT_TRANSPORT = Transport.SOCKET;
+    /**
+     * Default number of threads receiving and decoding packets (only used by {@link Transport#CHANNEL}).
+     */
+    public static final int DEFAULT_RECEIVE_WORKERS = 1;
+    /**
+     * Maximum number of receive workers. A process may run at most 8 threads, and 7 are already taken:
+     * the main thread, the 3 threads of the stubborn link, the send thread of the fair-loss link,
+     * the output writer and the shutdown hook.
+     */
+    public static final int MAX_RECEIVE_WORKERS = 1;
+    /**
+     * Default size of the kernel socket buffers (SO_RCVBUF and SO_SNDBUF), 0 to keep the OS default.
+     */
+    public static final int DEFAULT_SOCKET_BUFFER_SIZE = 1 << 20;
+    /**
+     * Default maximum size of a packet, 0 to choose it from the path to the peer
+     * ({@link #ETHERNET_PACKET_SIZE} or {@link #LOOPBACK_PACKET_SIZE}).
+     */
+    public static final int DEFAULT_PACKET_SIZE = 0;
+    /**
+     * Maximum size of a packet sent to a remote peer: it fits a 1500 bytes Ethernet frame with the IP/UDP headers.
+     */
+    public static final int ETHERNET_PACKET_SIZE = 1400;
+    /**
+     * Maximum size of a packet sent to a peer on the loopback interface (no fragmentation up to 64 KiB).
+     * It is kept well below the maximum to bound the memory held by the packets in flight.
+     */
+    public static final int LOOPBACK_PACKET_SIZE = 8192;
+    /**
+     * Minimum size of a packet: the size of the biggest ack, so the acks sent on their own never exceed
+     * the packet size, while leaving room in the payload packets for their header and a piggybacked ack.
+     */
+    public static final int MIN_PACKET_SIZE =
+            SelectiveAckPacketImpl.ACK_HEADER_SIZE + SelectiveAckPacketImpl.MAX_SACK_WORDS * Long.BYTES;
+    /**
+     * Default size of the off-heap arena holding the encoded packets in flight.
+     * It bounds the send windows: every peer gets an equal share of it, so a peer keeps the full send window
+     * only if the arena holds (number of hosts - 1) * (send window + 1) * (packet size of the peer) bytes.
+     * With 8 KiB loopback packets, 16 MiB gives 15 packets in flight to each of 127 peers.
+     */
+    public static final int DEFAULT_ARENA_SIZE = 16 << 20;
+    /**
+     * Default wire format version of the payload packets sent. Both versions are always received,
+     * so processes sending different versions can coexist.
+     */
+    public static final int DEFAULT_WIRE_VERSION = Packet.VERSION_2;
+    /**
+     * Default maximum time (in microseconds) an ack waits for a payload packet going to the same peer
+     * to be piggybacked on, before being sent on its own. 0 sends every ack right away.
+     */
+    public static final int DEFAULT_ACK_DELAY = 1000;
+    /**
+     * Default number of packets received from a peer after which their ack is sent without waiting
+     * for the ack delay. It keeps the acks of a fast peer flowing well before it runs out of credit.
+     */
+    public static final int DEFAULT_ACK_THRESHOLD = 32;
+    /**
+     * Default maximum time (in microseconds) a packet waits for more messages before being sent,
+     * unless it reaches the batch size first. 0 sends every packet as soon as it has a message.
+     */
+    public static final int DEFAULT_LINGER = 100;
+    /**
+     * Default target size (in bytes) of a packet: it is sent without lingering once it reaches it.
+     * 0 means a full packet.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 0;
+    /**
+     * Default maximum number of broadcast messages queued for each peer and not added to a packet yet:
+     * a broadcast waits for room beyond it.
+     */
+    public static final int DEFAULT_BROADCAST_BUFFER = 1 << 14;
+
+    /**
+     * Implementations of the fair-loss link.
+     */
+    public enum Transport {
+        SOCKET,  // blocking DatagramSocket, one receive thread ({@link FairLossLink})
+        CHANNEL  // DatagramChannel with allocation-free receive workers ({@link ChannelFairLossLink})
+    }
+
+    private int sendWindow;
+    private int receiveWindow;
+    private Transport transport;
+    private int receiveWorkers;
+    private int socketReceiveBufferSize;
+    private int socketSendBufferSize;
+    private int packetSize;
+    private final Map<Integer, Integer> hostPacketSizes; // packet sizes set for single peers, by id
+    private int arenaSize;
+    private int wireVersion;
+    private int ackDelay;
+    private int ackThreshold;
+    private int linger;
+    private int batchSize;
+    private int broadcastBuffer;
+
+    /**
+     * Constructor of {@link LinkConfig}.
+     * It reads the system properties to override the default values.
+     */
+    public LinkConfig() {
+        this.hostPacketSizes = new HashMap<>();
+        // Every property goes through its setter, so an invalid value fails like an invalid call.
+        this.setSendWindow(LinkConfig.getProperty("cs451.sendWindow", LinkConfig.DEFAULT_SEND_WINDOW));
+        this.setReceiveWindow(LinkConfig.getProperty("cs451.receiveWindow", LinkConfig.DEFAULT_RECEIVE_WINDOW));
+        this.setTransport(LinkConfig.parseTransport(
+                System.getProperty("cs451.transport", LinkConfig.DEFAULT_TRANSPORT.name())));
+        this.setReceiveWorkers(LinkConfig.getProperty("cs451.receiveWorkers", LinkConfig.DEFAULT_RECEIVE_WORKERS));
+        this.setSocketReceiveBufferSize(
+                LinkConfig.getProperty("cs451.socketReceiveBuffer", LinkConfig.DEFAULT_SOCKET_BUFFER_SIZE));
+        this.setSocketSendBufferSize(
+                LinkConfig.getProperty("cs451.socketSendBuffer", LinkConfig.DEFAULT_SOCKET_BUFFER_SIZE));
+        this.setPacketSize(LinkConfig.getProperty("cs451.packetSize", LinkConfig.DEFAULT_PACKET_SIZE));
+        this.setArenaSize(LinkConfig.getProperty("cs451.arenaSize", LinkConfig.DEFAULT_ARENA_SIZE));
+        this.setWireVersion(LinkConfig.getProperty("cs451.wireVersion", LinkConfig.DEFAULT_WIRE_VERSION));
+        this.setAckDelay(LinkConfig.getProperty("cs451.ackDelay", LinkConfig.DEFAULT_ACK_DELAY));
+        this.setAckThreshold(LinkConfig.getProperty("cs451.ackThreshold", LinkConfig.DEFAULT_ACK_THRESHOLD));
+        this.setLinger(LinkConfig.getProperty("cs451.linger", LinkConfig.DEFAULT_LINGER));
+        this.setBatchSize(LinkConfig.getProperty("cs451.batchSize", LinkConfig.DEFAULT_BATCH_SIZE));
+        this.setBroadcastBuffer(LinkConfig.getProperty("cs451.broadcastBuffer", LinkConfig.DEFAULT_BROADCAST_BUFFER));
+    }
+
+    /**
+     * Get the maximum number of packets in flight to each peer.
+     *
+     * @return The size of the send window.
+     */
+    public int getSendWindow() {
+        return this.sendWindow;
+    }
+
+    /**
+     * Set the maximum number of packets in flight to each peer.
+     *
+     * @param sendWindow: the size of the send window.
+     * @return This config.
+     */
+    public LinkConfig setSendWindow(final int sendWindow) {
+        if (sendWindow <= 0) {
+            throw new IllegalArgumentException("The send window must be positive.");
+        }
+        this.sendWindow = sendWindow;
+        return this;
+    }
+
+    /**
+     * Get the number of packets accepted above the cumulative ack from each peer.
+     *
+     * @return The size of the receive window.
+     */
+    public int getReceiveWindow() {
+        return this.receiveWindow;
+    }
+
+    /**
+     * Set the number of packets accepted above the cumulative ack from each peer
+     * (rounded up to a power of 2, at least 64).
+     *
+     * @param receiveWindow: the size of the receive window.
+     * @return This config.
+     */
+    public LinkConfig setReceiveWindow(final int receiveWindow) {
+        if (receiveWindow <= 0) {
+            throw new IllegalArgumentException("The receive window must be positive.");
+        }
+        this.receiveWindow = receiveWindow;
+        return this;
+    }
+
+    /**
+     * Get the transport of the fair-loss link.
+     *
+     * @return The transport.
+     */
+    public Transport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Set the transport of the fair-loss link.
+     *
+     * @param transport: the transport.
+     * @return This config.
+     */
+    public LinkConfig setTransport(final Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("The transport cannot be null.");
+        }
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Get the number of threads receiving and decoding packets.
+     *
+     * @return The number of receive workers.
+     */
+    public int getReceiveWorkers() {
+        return this.receiveWorkers;
+    }
+
+    /**
+     * Set the number of threads receiving and decoding packets.
+     *
+     * @param receiveWorkers: the number of receive workers, at most {@link #MAX_RECEIVE_WORKERS}.
+     * @return This config.
+     */
+    public LinkConfig setReceiveWorkers(final int receiveWorkers) {
+        if (receiveWorkers <= 0) {
+            throw new IllegalArgumentException("The number of receive workers must be positive.");
+        }
+        if (receiveWorkers > LinkConfig.MAX_RECEIVE_WORKERS) {
+            throw new IllegalArgumentException("At most " + LinkConfig.MAX_RECEIVE_WORKERS
+                    + " receive workers fit in the thread budget of the process.");
+        }
+        this.receiveWorkers = receiveWorkers;
+        return this;
+    }
+
+    /**
+     * Get the size of the kernel receive buffer of the socket (SO_RCVBUF).
+     *
+     * @return The size in bytes, 0 for the OS default.
+     */
+    public int getSocketReceiveBufferSize() {
+        return this.socketReceiveBufferSize;
+    }
+
+    /**
+     * Set the size of the kernel receive buffer of the socket (SO_RCVBUF).
+     *
+     * @param socketReceiveBufferSize: the size in bytes, 0 for the OS default.
+     * @return This config.
+     */
+    public LinkConfig setSocketReceiveBufferSize(final int socketReceiveBufferSize) {
+        if (socketReceiveBufferSize < 0) {
+            throw new IllegalArgumentException("The socket receive buffer size cannot be negative.");
+        }
+        this.socketReceiveBufferSize = socketReceiveBufferSize;
+        return this;
+    }
+
+    /**
+     * Get the size of the kernel send buffer of the socket (SO_SNDBUF).
+     *
+     * @return The size in bytes, 0 for the OS default.
+     */
+    public int getSocketSendBufferSize() {
+        return this.socketSendBufferSize;
+    }
+
+    /**
+     * Set the size of the kernel send buffer of the socket (SO_SNDBUF).
+     *
+     * @param socketSendBufferSize: the size in bytes, 0 for the OS default.
+     * @return This config.
+     */
+    public LinkConfig setSocketSendBufferSize(final int socketSendBufferSize) {
+        if (socketSendBufferSize < 0) {
+            throw new IllegalArgumentException("The socket send buffer size cannot be negative.");
+        }
+        this.socketSendBufferSize = socketSendBufferSize;
+        return this;
+    }
+
+    /**
+     * Get the maximum size of the packets sent to a peer.
+     * A size set for the peer comes first, then the size set for every peer.
+     * If no size has been set, it depends on the path: loopback peers get bigger packets.
+     *
+     * @param host: the peer.
+     * @return The maximum size of a packet in bytes.
+     */
+    public int getPacketSize(final Host host) {
+        final var hostPacketSize = this.hostPacketSizes.get(host.getId());
+        if (hostPacketSize != null) {
+            return hostPacketSize;
+        }
+        if (this.packetSize > 0) {
+            return this.packetSize;
+        }
+        try {
+            if (InetAddress.getByName(host.getIp()).isLoopbackAddress()) {
+                return LinkConfig.LOOPBACK_PACKET_SIZE;
+            }
+        } catch (UnknownHostException e) {
+            System.err.println("LinkConfig: Could not resolve " + host.getIp());
+        }
+        return LinkConfig.ETHERNET_PACKET_SIZE;
+    }
+
+    /**
+     * Set the maximum size of the packets sent to every peer.
+     *
+     * @param packetSize: the size in bytes, from {@link #MIN_PACKET_SIZE} to {@link Packet#MAX_PACKET_SIZE},
+     *                    0 to choose it from the path to the peer.
+     * @return This config.
+     */
+    public LinkConfig setPacketSize(final int packetSize) {
+        if (packetSize != 0 && (packetSize < LinkConfig.MIN_PACKET_SIZE || packetSize > Packet.MAX_PACKET_SIZE)) {
+            throw new IllegalArgumentException("Invalid packet size: " + packetSize);
+        }
+        this.packetSize = packetSize;
+        return this;
+    }
+
+    /**
+     * Set the maximum size of the packets sent to a single peer, overriding the size of every peer.
+     *
+     * @param host:       the peer.
+     * @param packetSize: the size in bytes, from {@link #MIN_PACKET_SIZE} to {@link Packet#MAX_PACKET_SIZE}.
+     * @return This config.
+     */
+    public LinkConfig setPacketSize(final Host host, final int packetSize) {
+        if (packetSize < LinkConfig.MIN_PACKET_SIZE || packetSize > Packet.MAX_PACKET_SIZE) {
+            throw new IllegalArgumentException("Invalid packet size: " + packetSize);
+        }
+        this.hostPacketSizes.put(host.getId(), packetSize);
+        return this;
+    }
+
+    /**
+     * Get the size of the off-heap arena holding the encoded packets in flight.
+     *
+     * @return The size in bytes.
+     */
+    public int getArenaSize() {
+        return this.arenaSize;
+    }
+
+    /**
+     * Set the size of the off-heap arena holding the encoded packets in flight.
+     * It must grow with the number of hosts and the packet sizes to keep the send window (see {@link #DEFAULT_ARENA_SIZE}).
+     *
+     * @param arenaSize: the size in bytes.
+     * @return This config.
+     */
+    public LinkConfig setArenaSize(final int arenaSize) {
+        if (arenaSize <= 0) {
+            throw new IllegalArgumentException("The arena size must be positive.");
+        }
+        this.arenaSize = arenaSize;
+        return this;
+    }
+
+    /**
+     * Get the wire format version of the payload packets sent.
+     *
+     * @return The version ({@link Packet#VERSION_1} or {@link Packet#VERSION_2}).
+     */
+    public int getWireVersion() {
+        return this.wireVersion;
+    }
+
+    /**
+     * Set the wire format version of the payload packets sent.
+     *
+     * @param wireVersion: the version ({@link Packet#VERSION_1} or {@link Packet#VERSION_2}).
+     * @return This config.
+     */
+    public LinkConfig setWireVersion(final int wireVersion) {
+        if (wireVersion != Packet.VERSION_1 && wireVersion != Packet.VERSION_2) {
+            throw new IllegalArgumentException("Invalid wire format version: " + wireVersion);
+        }
+        this.wireVersion = wireVersion;
+        return this;
+    }
+
+    /**
+     * Get the maximum time an ack waits for a payload packet to be piggybacked on.
+     *
+     * @return The delay in microseconds, 0 if the acks are sent right away.
+     */
+    public int getAckDelay() {
+        return this.ackDelay;
+    }
+
+    /**
+     * Set the maximum time an ack waits for a payload packet to be piggybacked on.
+     *
+     * @param ackDelay: the delay in microseconds, 0 to send the acks right away.
+     * @return This config.
+     */
+    public LinkConfig setAckDelay(final int ackDelay) {
+        if (ackDelay < 0) {
+            throw new IllegalArgumentException("The ack delay cannot be negative.");
+        }
+        this.ackDelay = ackDelay;
+        return this;
+    }
+
+    /**
+     * Get the number of packets received from a peer after which their ack is sent without waiting.
+     *
+     * @return The threshold, 1 if every packet is acked right away.
+     */
+    public int getAckThreshold() {
+        return this.ackThreshold;
+    }
+
+    /**
+     * Set the number of packets received from a peer after which their ack is sent without waiting.
+     * The ack goes out when either the threshold or the ack delay is reached, whichever comes first.
+     *
+     * @param ackThreshold: the threshold, 1 to ack every packet right away.
+     * @return This config.
+     */
+    public LinkConfig setAckThreshold(final int ackThreshold) {
+        if (ackThreshold <= 0) {
+            throw new IllegalArgumentException("The ack threshold must be positive.");
+        }
+        this.ackThreshold = ackThreshold;
+        return this;
+    }
+
+    /**
+     * Get the maximum time a packet waits for more messages before being sent.
+     *
+     * @return The linger time in microseconds, 0 if the packets are sent right away.
+     */
+    public int getLinger() {
+        return this.linger;
+    }
+
+    /**
+     * Set the maximum time a packet waits for more messages before being sent.
+     *
+     * @param linger: the linger time in microseconds, 0 to send the packets right away.
+     * @return This config.
+     */
+    public LinkConfig setLinger(final int linger) {
+        if (linger < 0) {
+            throw new IllegalArgumentException("The linger time cannot be negative.");
+        }
+        this.linger = linger;
+        return this;
+    }
+
+    /**
+     * Get the target size of a packet sent to a peer: it is sent without lingering once it reaches it.
+     *
+     * @param host: the peer.
+     * @return The target size in bytes, never above the packet size of the peer.
+     */
+    public int getBatchSize(final Host host) {
+        final var packetSize = this.getPacketSize(host);
+        return this.batchSize > 0 ? Math.min(this.batchSize, packetSize) : packetSize;
+    }
+
+    /**
+     * Set the target size of the packets.
+     *
+     * @param batchSize: the target size in bytes, 0 for full packets.
+     * @return This config.
+     */
+    public LinkConfig setBatchSize(final int batchSize) {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("The batch size cannot be negative.");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of broadcast messages queued for each peer.
+     *
+     * @return The size of the broadcast buffer of a peer.
+     */
+    public int getBroadcastBuffer() {
+        return this.broadcastBuffer;
+    }
+
+    /**
+     * Set the maximum number of broadcast messages queued for each peer.
+     *
+     * @param broadcastBuffer: the size of the broadcast buffer of a peer.
+     * @return This config.
+     */
+    public LinkConfig setBroadcastBuffer(final int broadcastBuffer) {
+        if (broadcastBuffer <= 0) {
+            throw new IllegalArgumentException("The broadcast buffer must be positive.");
+        }
+        this.broadcastBuffer = broadcastBuffer;
+        return this;
+    }
+
+    /*
+     * Read an int system property, or its default value if it is not set.
+     * Unlike Integer.getInteger, a value that is not an int fails instead of being ignored.
+     */
+    private static int getProperty(final String name, final int defaultValue) {
+        final var value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + name + ": " + value);
+        }
+    }
+
+    /*
+     * Parse the name of a transport, ignoring the case.
+     */
+    private static Transport parseTransport(final String name) {
+        try {
+            return Transport.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid transport: " + name);
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package cs451.links;
+
+import cs451.packet.Packet;
+
+/**
+ * Callback called by the {@link StubbornLink} for every payload packet it delivers.
+ */
+@FunctionalInterface
+interface PacketDeliverCallback {
+
+    /**
+     * Deliver a packet.
+     * The packet is only valid during the call.
+     *
+     * @param packet: the packet.
+     * @param first:  true the first time the packet is delivered, false for a retransmission.
+     */
+    void deliver(Packet packet, boolean first);
+
+}
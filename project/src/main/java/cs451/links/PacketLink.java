@@ -0,0 +1,20 @@
+package cs451.links;
+
+import cs451.packet.Packet;
+
+/**
+ * Interface for the links that send and deliver whole {@link Packet}s
+ * (the fair-loss links, on top of which the other links are built).
+ */
+interface PacketLink extends Link {
+
+    /**
+     * Send a packet.
+     * The acks are sent before the payload packets already queued and never block the caller,
+     * the payload packets may block until there is room in the send buffer.
+     *
+     * @param packet: the packet to send.
+     */
+    void send(Packet packet);
+
+}
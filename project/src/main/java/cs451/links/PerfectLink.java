@@ -2,11 +2,10 @@ package cs451.links;
 
 import cs451.Host;
 import cs451.message.Message;
+import cs451.packet.MessageVisitor;
 import cs451.packet.Packet;
 
 import java.util.List;
-import java.util.function.BiConsumer;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Perfect link (or reliable link) abstraction. It is the strongest variant of the link abstractions, and it has
@@ -22,8 +21,8 @@ import java.util.concurrent.ConcurrentSkipListSet;
 public class PerfectLink implements Link {
 
     private final StubbornLink sLink;
-    private final ConcurrentSkipListSet<Integer>[] delivered;
-    private final BiConsumer<Integer, Integer> deliverCallback;
+    private final DeliverCallback deliverCallback;
+    private final MessageVisitor messageVisitor; // delivers the messages of a new packet
 
     /**
      * Constructor of {@link PerfectLink}.
@@ -31,19 +30,29 @@ public class PerfectLink implements Link {
      * @param myId:      the id of the host.
      * @param port:      the port to listen to.
      * @param hosts:     the list of hosts.
-     * @param deliverCallback: consumer of packets called every time a packet is received.
+     * @param deliverCallback: callback called for every message delivered.
      */
     public PerfectLink(final int myId, final int port,
-        final List<Host> hosts, final BiConsumer<Integer, Integer> deliverCallback) {
-        // Use a set of delivered messages for each sender host.
-        this.delivered = new ConcurrentSkipListSet[hosts.size()];
-        for (var i = 0; i < hosts.size(); i++) {
-            this.delivered[i] = new ConcurrentSkipListSet<>();
-        }
+        final List<Host> hosts, final DeliverCallback deliverCallback) {
+        this(myId, port, hosts, deliverCallback, new LinkConfig());
+    }
+
+    /**
+     * Constructor of {@link PerfectLink}.
+     *
+     * @param myId:      the id of the host.
+     * @param port:      the port to listen to.
+     * @param hosts:     the list of hosts.
+     * @param deliverCallback: callback called for every message delivered.
+     * @param config:    the tunable parameters of the link.
+     */
+    public PerfectLink(final int myId, final int port, final List<Host> hosts,
+        final DeliverCallback deliverCallback, final LinkConfig config) {
         this.deliverCallback = deliverCallback;
+        this.messageVisitor = this::deliverMessage;
         var hostsArray = new Host[hosts.size()];
         hosts.toArray(hostsArray);
-        this.sLink = new StubbornLink(myId, port, hostsArray, this::deliver);
+        this.sLink = new StubbornLink(myId, port, hostsArray, this::deliver, config);
     }
 
     @Override
@@ -51,6 +60,36 @@ public class PerfectLink implements Link {
         this.sLink.send(message);
     }
 
+    /**
+     * Send a message to every other host.
+     * The same message is queued for every receiver, and its receiver id is ignored.
+     * It waits while too many broadcast messages are queued for a receiver, so it must not be called
+     * while delivering (see {@link #relay(Message)}).
+     *
+     * @param message: the message to send.
+     */
+    public void broadcast(final Message message) {
+        this.sLink.broadcast(message);
+    }
+
+    /**
+     * Send a message to every other host without blocking, so it can be called while delivering.
+     *
+     * @param message: the message to send.
+     */
+    public void relay(final Message message) {
+        this.sLink.relay(message);
+    }
+
+    /**
+     * Send a message to its receiver without blocking, so it can be called while delivering.
+     *
+     * @param message: the message to send.
+     */
+    public void post(final Message message) {
+        this.sLink.post(message);
+    }
+
     @Override
     public void close() {
         this.sLink.close();
@@ -58,16 +97,25 @@ public class PerfectLink implements Link {
 
     /*
      * Deliver a packet if it hasn't been delivered yet.
+     * The stubborn link tells the first delivery of a packet apart from the retransmissions: its receive window,
+     * which also drives the acks, is the single record of the packets delivered by each sender.
+     * The packet is only valid during the call, so its messages are walked in place:
+     * the callback gets the ids and a slice of the packet buffer, without an object per message.
+     */
+    private void deliver(final Packet packet, final boolean first) {
+        if (first) {
+            packet.forEachMessage(this.messageVisitor);
+        }
+    }
+
+    /*
+     * Deliver a message of a new packet: a range of ids is delivered id by id, with an empty payload.
      */
-    private void deliver(final Packet packet) {
-        final var senderId = packet.getSenderId();
-        final var packetId = packet.getId();
-        if (!this.delivered[senderId - 1].contains(packetId)) {
-            this.delivered[senderId - 1].add(packetId);
-            var messages = packet.getMessages();
-            for (int i = 0; i < messages.size(); i++) {
-                this.deliverCallback.accept(messages.get(i).getId(), senderId);
-            }
+    private void deliverMessage(final int senderId, final int messageId, final int numIds,
+        final byte[] data, final int offset, final int length) {
+        final var lastId = messageId + numIds - 1;
+        for (int id = messageId; id <= lastId; id++) {
+            this.deliverCallback.deliver(id, senderId, data, offset, length);
         }
     }
 
@@ -0,0 +1,94 @@
+package cs451.links;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip time estimator of a single peer, used to compute its retransmission timeout (RTO).
+ * It follows the Jacobson/Karels algorithm (RFC 6298):
+ * - SRTT   = (1 - 1/8) * SRTT + 1/8 * R
+ * - RTTVAR = (1 - 1/4) * RTTVAR + 1/4 * |SRTT - R|
+ * - RTO    = SRTT + 4 * RTTVAR
+ * Samples must only come from packets that were never retransmitted (Karn's rule).
+ * Every timeout doubles the RTO (exponential backoff) until a new valid sample arrives.
+ * All the times are in nanoseconds.
+ */
+class RttEstimator {
+
+    private static final long INITIAL_RTO = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MIN_RTO = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long MAX_RTO = TimeUnit.MILLISECONDS.toNanos(1000);
+    private static final int MAX_BACKOFF = 16;
+
+    private long srtt;        // smoothed round trip time, 0 until the first sample
+    private long rttvar;      // round trip time variation
+    private long rto;         // retransmission timeout without backoff
+    private int backoff;      // number of consecutive timeouts
+    private long lastTimeout; // time of the last backoff
+
+    RttEstimator() {
+        this.srtt = 0;
+        this.rttvar = 0;
+        this.rto = RttEstimator.INITIAL_RTO;
+        this.backoff = 0;
+        this.lastTimeout = System.nanoTime() - RttEstimator.MAX_RTO;
+    }
+
+    /**
+     * Update the estimation with a new round trip time sample.
+     *
+     * @param rtt: the round trip time of a packet that was never retransmitted.
+     */
+    synchronized void sample(final long rtt) {
+        if (this.srtt == 0) {
+            this.srtt = rtt;
+            this.rttvar = rtt / 2;
+        } else {
+            this.rttvar += (Math.abs(this.srtt - rtt) - this.rttvar) / 4;
+            this.srtt += (rtt - this.srtt) / 8;
+        }
+        this.rto = Math.max(RttEstimator.MIN_RTO, Math.min(RttEstimator.MAX_RTO, this.srtt + 4 * this.rttvar));
+        this.backoff = 0;
+    }
+
+    /**
+     * Back off after a retransmission timeout.
+     * The timeouts that expire within the same RTO are considered a single one.
+     *
+     * @param now: the current time.
+     */
+    synchronized void timeout(final long now) {
+        if (now - this.lastTimeout < this.getRto() || this.backoff == RttEstimator.MAX_BACKOFF) {
+            return;
+        }
+        this.backoff++;
+        this.lastTimeout = now;
+    }
+
+    /**
+     * Get the current retransmission timeout, backoff included.
+     *
+     * @return The retransmission timeout.
+     */
+    synchronized long getRto() {
+        return Math.min(RttEstimator.MAX_RTO, this.rto << this.backoff);
+    }
+
+    /**
+     * Get the smoothed round trip time.
+     *
+     * @return The smoothed round trip time, 0 if no sample has been taken yet.
+     */
+    synchronized long getSrtt() {
+        return this.srtt;
+    }
+
+    /**
+     * Get the backoff level.
+     *
+     * @return The number of consecutive timeouts since the last valid sample.
+     */
+    synchronized int getBackoff() {
+        return this.backoff;
+    }
+
+}
@@ -0,0 +1,61 @@
+package cs451.links;
+
+import cs451.packet.Packet;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Send queue of a fair-loss link with two lanes.
+ * The control lane (the acks) is always taken first and never blocks the caller, so the thread receiving
+ * the packets cannot stall behind outbound data and the acks do not wait for the payload packets queued
+ * before them. The data lane (the payload packets) is bounded and taken in FIFO order.
+ * The control lane is not bounded: the acks are coalesced by the {@link StubbornLink} and taken
+ * before any payload packet, so it only grows if the socket cannot keep up with the packets received.
+ */
+class SendQueue {
+
+    private final LinkedBlockingDeque<Packet> queue; // control packets at the head, payload packets at the tail
+    private final Semaphore dataPermits;             // free room in the data lane
+
+    /**
+     * Constructor of {@link SendQueue}.
+     *
+     * @param dataCapacity: the maximum number of payload packets in the queue.
+     */
+    SendQueue(final int dataCapacity) {
+        this.queue = new LinkedBlockingDeque<>();
+        this.dataPermits = new Semaphore(dataCapacity);
+    }
+
+    /**
+     * Queue a packet. An ack goes to the head of the queue right away, the newest first since it acks
+     * at least as much as the older ones. A payload packet waits for room at the tail.
+     *
+     * @param packet: the packet to send.
+     * @throws InterruptedException if interrupted while waiting for room in the data lane.
+     */
+    void put(final Packet packet) throws InterruptedException {
+        if (packet.isAck()) {
+            this.queue.offerFirst(packet);
+            return;
+        }
+        this.dataPermits.acquire();
+        this.queue.offerLast(packet);
+    }
+
+    /**
+     * Take the next packet to send, waiting if the queue is empty.
+     *
+     * @return The next ack if any, the oldest payload packet otherwise.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    Packet take() throws InterruptedException {
+        final var packet = this.queue.takeFirst();
+        if (!packet.isAck()) {
+            this.dataPermits.release();
+        }
+        return packet;
+    }
+
+}
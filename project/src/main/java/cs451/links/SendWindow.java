@@ -0,0 +1,255 @@
+package cs451.links;
+
+import cs451.packet.Packet;
+
+/**
+ * Sliding window of the packets sent to a single peer and not yet acknowledged.
+ * The packets are stored in a ring buffer indexed by (packet id mod ring size), so an ack
+ * releases a packet in O(1) and a retransmission scan only visits the packets in flight.
+ * Packet ids must be added in increasing order, starting from 1.
+ * Acknowledged packets are released ({@link Packet#release()}).
+ * Every slot also keeps the last (re)transmission time of its packet, used to measure the round
+ * trip time of the peer. Every packet in flight has a retransmission timer armed on a {@link TimerWheel},
+ * whose key is (window key | packet id).
+ * The window is also bounded by the credits advertised by the peer in its acks: no packet is added
+ * beyond the highest id the peer can receive.
+ * Finally, the window is bounded by the congestion window of the peer (see {@link CongestionController}),
+ * which grows with the acks and shrinks on losses and timeouts.
+ */
+class SendWindow {
+
+    /**
+     * Credits assumed before the first ack of the peer: the smallest receive window (one bitmap word),
+     * so every peer can accept them.
+     */
+    static final int INITIAL_CREDITS = 64;
+
+    private final int mask;
+    private final int capacity;            // maximum number of packets in flight
+    private final Packet[] ring;
+    private final long[] sentAt;           // last (re)transmission time of each slot
+    private final boolean[] retransmitted; // true if the packet of the slot has been retransmitted
+    private final RttEstimator rttEstimator;
+    private final CongestionController congestionController;
+    private final TimerWheel timerWheel;
+    private final long key;                // high 32 bits of the timer keys of the window
+    private int base; // lowest id not yet acknowledged
+    private int next; // id following the last packet added
+    private int limit; // highest id the peer can receive
+
+    /**
+     * Constructor of {@link SendWindow}.
+     *
+     * @param capacity:   the maximum number of packets in flight.
+     * @param key:        the high 32 bits of the timer keys of the window (the low 32 bits are the packet id).
+     * @param timerWheel: the wheel where the retransmission timers are armed.
+     */
+    SendWindow(final int capacity, final int key, final TimerWheel timerWheel) {
+        var size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.ring = new Packet[size];
+        this.sentAt = new long[size];
+        this.retransmitted = new boolean[size];
+        this.rttEstimator = new RttEstimator();
+        this.congestionController = new CongestionController(capacity);
+        this.timerWheel = timerWheel;
+        this.key = (long) key << Integer.SIZE;
+        this.mask = size - 1;
+        this.capacity = capacity;
+        this.base = 1;
+        this.next = 1;
+        this.limit = SendWindow.INITIAL_CREDITS;
+    }
+
+    /**
+     * Check if a packet can be added to the window without waiting.
+     *
+     * @param id: the id of the packet.
+     * @return True if there is space, credit and congestion window for the packet, false otherwise.
+     */
+    synchronized boolean canAdd(final int id) {
+        return this.isOpen(id);
+    }
+
+    /**
+     * Add a packet to the window, waiting until there is space and credit for it,
+     * and arm its retransmission timer.
+     * The congestion window is only checked by {@link #canAdd(int)}: a timeout can shrink it right after the check,
+     * and waiting for it here could block the producer on a peer that no longer acks (e.g. a crashed one).
+     *
+     * @param packet: the packet to add.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    synchronized void add(final Packet packet) throws InterruptedException {
+        final var id = packet.getId();
+        while (id - this.base >= this.capacity || id > this.limit) {
+            this.wait();
+        }
+        final var slot = id & this.mask;
+        this.ring[slot] = packet;
+        this.sentAt[slot] = System.nanoTime();
+        this.retransmitted[slot] = false;
+        this.next = id + 1;
+        this.timerWheel.arm(this.key | id, this.sentAt[slot] + this.rttEstimator.getRto());
+    }
+
+    /**
+     * Release the packets acknowledged by a cumulative id and a selective acks bitmap,
+     * and update the credits of the peer.
+     * The newest packet released that was never retransmitted gives a round trip time sample.
+     * The packets released grow the congestion window, while a packet still in flight right after the cumulative id
+     * with enough packets selectively acked after it is considered lost.
+     *
+     * @param cumulativeId:  every packet with an id less than or equal to it is acknowledged.
+     * @param selectiveAcks: bit i acknowledges the packet with id cumulativeId + 1 + i.
+     * @param credits:       the number of packets above cumulativeId the peer can receive.
+     * @return True if the window opened (space, credit or congestion window), false otherwise.
+     */
+    synchronized boolean release(final int cumulativeId, final long[] selectiveAcks, final int credits) {
+        final var oldBase = this.base;
+        final var oldLimit = this.limit;
+        final var oldWindow = this.congestionController.getWindow();
+        var numReleased = 0;
+        var numSelectiveAcks = 0;
+        // Acks can be reordered: the limit never moves back.
+        this.limit = Math.max(this.limit, cumulativeId + credits);
+        var newest = -1;
+        final var last = Math.min(cumulativeId, this.next - 1);
+        for (var id = this.base; id <= last; id++) {
+            if (this.releaseSlot(id)) {
+                newest = id;
+                numReleased++;
+            }
+        }
+        if (last >= this.base) {
+            this.base = last + 1;
+        }
+        for (var i = 0; i < selectiveAcks.length; i++) {
+            var word = selectiveAcks[i];
+            numSelectiveAcks += Long.bitCount(word);
+            while (word != 0) {
+                final var id = cumulativeId + 1 + i * Long.SIZE + Long.numberOfTrailingZeros(word);
+                if (id >= this.base && id < this.next && this.releaseSlot(id)) {
+                    newest = id;
+                    numReleased++;
+                }
+                word &= word - 1;
+            }
+        }
+        // Karn's rule: the ack of a retransmitted packet is ambiguous, so it is not sampled.
+        if (newest != -1 && !this.retransmitted[newest & this.mask]) {
+            this.rttEstimator.sample(System.nanoTime() - this.sentAt[newest & this.mask]);
+        }
+        if (numReleased > 0) {
+            this.congestionController.ack(numReleased);
+        }
+        // The packet right after the cumulative id is missing while the following ones arrive.
+        if (this.base == cumulativeId + 1 && this.base < this.next
+                && numSelectiveAcks >= CongestionController.DUP_THRESHOLD) {
+            this.congestionController.loss(this.base, this.next - 1);
+        }
+        // Slide over the packets selectively acknowledged right after the base.
+        while (this.base < this.next && this.ring[this.base & this.mask] == null) {
+            this.base++;
+        }
+        if (this.base == oldBase && this.limit == oldLimit && this.congestionController.getWindow() <= oldWindow) {
+            return false;
+        }
+        this.notifyAll();
+        return true;
+    }
+
+    /**
+     * Handle the expiration of the retransmission timer of a packet.
+     * If the packet is still in flight and its retransmission timeout expired, it is marked as retransmitted
+     * and as not transmittable until the fair-loss link sends it again, its timer is armed again and
+     * the timeout backs off. If the timeout changed since the timer was armed,
+     * the timer is just moved to the new deadline.
+     *
+     * @param id: the id of the packet.
+     * @return The packet to retransmit, null if there is nothing to retransmit.
+     */
+    synchronized Packet expire(final int id) {
+        final var slot = id & this.mask;
+        final var packet = this.ring[slot];
+        // Acknowledged packets leave stale timers behind.
+        if (id < this.base || id >= this.next || packet == null) {
+            return null;
+        }
+        final var now = System.nanoTime();
+        final var rto = this.rttEstimator.getRto();
+        // Not sent yet by the fair-loss link, or the timeout grew since the timer was armed.
+        if (!packet.canTransmit() || now - this.sentAt[slot] < rto) {
+            this.timerWheel.arm(this.key | id, Math.max(now, this.sentAt[slot]) + rto);
+            return null;
+        }
+        // Claim the packet under the lock, so it cannot be released while it is queued.
+        packet.setTransmit(false);
+        this.rttEstimator.timeout(now);
+        this.congestionController.timeout(id, this.next - 1);
+        this.sentAt[slot] = now;
+        this.retransmitted[slot] = true;
+        this.timerWheel.arm(this.key | id, now + this.rttEstimator.getRto());
+        return packet;
+    }
+
+    /**
+     * Get the credits left: the number of packets that can still be sent before the peer acks.
+     *
+     * @return The credits left.
+     */
+    synchronized int getCredits() {
+        return Math.max(0, this.limit - this.next + 1);
+    }
+
+    /**
+     * Get the congestion window of the peer.
+     *
+     * @return The maximum number of packets in flight allowed by the congestion control.
+     */
+    synchronized int getCongestionWindow() {
+        return this.congestionController.getWindow();
+    }
+
+    /**
+     * Get the slow start threshold of the peer.
+     *
+     * @return The congestion window size above which the window grows linearly.
+     */
+    synchronized int getSlowStartThreshold() {
+        return this.congestionController.getThreshold();
+    }
+
+    /**
+     * Get the round trip time estimator of the peer.
+     *
+     * @return The round trip time estimator.
+     */
+    RttEstimator getRttEstimator() {
+        return this.rttEstimator;
+    }
+
+    /*
+     * Check if a packet fits in the window: space, credit and congestion window.
+     */
+    private boolean isOpen(final int id) {
+        return id - this.base < Math.min(this.capacity, this.congestionController.getWindow()) && id <= this.limit;
+    }
+
+    /*
+     * Release the slot of a packet.
+     * Return true if the packet was still in flight, false otherwise.
+     */
+    private boolean releaseSlot(final int id) {
+        final var slot = id & this.mask;
+        if (this.ring[slot] == null) {
+            return false;
+        }
+        this.ring[slot].release();
+        this.ring[slot] = null;
+        return true;
+    }
+
+}
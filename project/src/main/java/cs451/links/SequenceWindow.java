@@ -0,0 +1,156 @@
+package cs451.links;
+
+/**
+ * Set of the packet ids received from a single sender.
+ * It is represented as a cumulative watermark (every id less than or equal to it has been seen)
+ * plus a ring bitmap for the ids received out of order above the watermark.
+ * Ids are mapped to the bitmap using (id mod capacity), so the bitmap covers
+ * the ids from watermark + 1 to watermark + capacity.
+ * It is not thread safe.
+ */
+class SequenceWindow {
+
+    private static final int WORD_SIZE = Long.SIZE;
+
+    private int watermark;      // every id <= watermark has been seen
+    private int highest;        // highest id seen so far
+    private final int capacity; // number of ids tracked above the watermark (power of 2)
+    private final long[] words; // ring bitmap of the ids above the watermark
+
+    /**
+     * Constructor of {@link SequenceWindow}.
+     *
+     * @param capacity: the number of ids that can be tracked above the watermark
+     *                  (rounded up to a power of 2, at least 64).
+     */
+    SequenceWindow(final int capacity) {
+        var size = WORD_SIZE;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.words = new long[size / WORD_SIZE];
+        this.watermark = 0;
+        this.highest = 0;
+    }
+
+    /**
+     * Get the cumulative watermark.
+     *
+     * @return The highest id such that every id less than or equal to it has been seen.
+     */
+    int getWatermark() {
+        return this.watermark;
+    }
+
+    /**
+     * Get the credits of the window: the free space of the bitmap, advertised as the number of ids
+     * the sender can send above the watermark.
+     * The ids received above a hole hold their part of the bitmap until the hole is filled, so the credits shrink
+     * while the sender is ahead of the ids it has to retransmit, and grow back once they are received.
+     *
+     * @return The credits, between 0 and the capacity.
+     */
+    int getCredits() {
+        return Math.max(0, this.capacity - (this.highest - this.watermark));
+    }
+
+    /**
+     * Check if an id falls above the tracked range.
+     *
+     * @param id: the id to check.
+     * @return True if the id cannot be tracked yet, false otherwise.
+     */
+    boolean isBeyond(final int id) {
+        return id - this.watermark > this.capacity;
+    }
+
+    /**
+     * Check if an id has already been seen.
+     *
+     * @param id: the id to check.
+     * @return True if the id has been seen, false otherwise.
+     */
+    boolean contains(final int id) {
+        if (id <= this.watermark) {
+            return true;
+        }
+        if (this.isBeyond(id)) {
+            return false;
+        }
+        return this.isSet(id);
+    }
+
+    /**
+     * Add an id to the set.
+     *
+     * @param id: the id to add.
+     * @return True if the id was not seen before and it has been added, false if it is a
+     *         duplicate or it is beyond the tracked range.
+     */
+    boolean add(final int id) {
+        if (id <= this.watermark || this.isBeyond(id) || this.isSet(id)) {
+            return false;
+        }
+        if (id > this.highest) {
+            this.highest = id;
+        }
+        if (id != this.watermark + 1) {
+            this.set(id);
+            return true;
+        }
+        // Close the gap: slide the watermark over the contiguous ids already seen.
+        this.watermark = id;
+        while (this.watermark < this.highest && this.isSet(this.watermark + 1)) {
+            this.watermark++;
+            this.clear(this.watermark);
+        }
+        return true;
+    }
+
+    /**
+     * Get the bitmap of the ids seen above the watermark.
+     * Bit i (word i / 64, bit i % 64) represents the id watermark + 1 + i.
+     *
+     * @param maxWords: the maximum number of words to return.
+     * @return The bitmap, empty if there are no ids above the watermark.
+     */
+    long[] getSelectiveAcks(final int maxWords) {
+        final var span = this.highest - this.watermark;
+        if (span <= 0) {
+            return new long[0];
+        }
+        final var numWords = Math.min(maxWords, (span + WORD_SIZE - 1) / WORD_SIZE);
+        final var bitmap = new long[numWords];
+        final var mask = this.words.length - 1;
+        for (var i = 0; i < numWords; i++) {
+            // Bit position in the ring of the first id of the word.
+            final var position = (this.watermark + 1 + i * WORD_SIZE) & (this.capacity - 1);
+            final var index = position >>> 6;
+            final var offset = position & (WORD_SIZE - 1);
+            if (offset == 0) {
+                bitmap[i] = this.words[index];
+            } else {
+                bitmap[i] = (this.words[index] >>> offset)
+                        | (this.words[(index + 1) & mask] << (WORD_SIZE - offset));
+            }
+        }
+        return bitmap;
+    }
+
+    private boolean isSet(final int id) {
+        final var position = id & (this.capacity - 1);
+        return (this.words[position >>> 6] & (1L << position)) != 0;
+    }
+
+    private void set(final int id) {
+        final var position = id & (this.capacity - 1);
+        this.words[position >>> 6] |= 1L << position;
+    }
+
+    private void clear(final int id) {
+        final var position = id & (this.capacity - 1);
+        this.words[position >>> 6] &= ~(1L << position);
+    }
+
+}
@@ -2,12 +2,15 @@ package cs451.links;
 
 import cs451.Host;
 import cs451.packet.Packet;
+import cs451.packet.PacketArena;
 import cs451.message.Message;
 import cs451.packet.PayloadPacketImpl;
+import cs451.packet.PiggybackPacketImpl;
+import cs451.packet.SelectiveAckPacketImpl;
 
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.function.Consumer;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Stubborn link abstraction. The implementation doesn't retransmit packets forever but uses
@@ -17,16 +20,25 @@ import java.util.function.Consumer;
  *                       process q, then q delivers m an infinite number of times.
  * 2) No creation:       If some process q delivers a message m with sender p, then m
  *                       was previously sent to q by process p.
+ * The acks of the packets received from a peer are coalesced: a single ack is sent when
+ * {@link LinkConfig#getAckThreshold()} packets were received or {@link LinkConfig#getAckDelay()} elapsed since
+ * the first of them, whichever comes first. If a payload packet leaves for the peer in the meantime,
+ * the ack travels in its datagram. Otherwise it is sent on its own, ahead of the payload packets
+ * queued in the fair-loss link (see {@link SendQueue}).
+ * Every packet is delivered with a flag telling if it is the first time: its receive window is the only record
+ * of the packets received, so the duplicates can be filtered above without a window that could lag behind the acks.
  * It implements the {@link Link} interface and it uses the {@link FairLossLink} abstraction.
  */
 public class StubbornLink implements Link {
 
     private static final int NUM_THREADS = 3;
-    private static final int NUM_ATTEMPTS = 3;
-    private static final int PACKET_LOWER_BOUND = 3;
     private static final int SEND_BUFFER_CAPACITY = 8;
-    private static final long RETRANSMISSION_TIME = 100;
-    private final static int SOCKET_TERMINATION_TIME = 50;
+    // Maximum time (ns) the packet creation parks when idle.
+    private static final long IDLE_WAIT_TIME = TimeUnit.MILLISECONDS.toNanos(1);
+    // Bit of the timer keys of the ack timers: (ACK_TIMER | sender index << 32).
+    private static final long ACK_TIMER = 1L << 63;
+    // Room kept free in the payload packets for a piggybacked ack with a few selective ack words.
+    private static final int PIGGYBACK_ROOM = SelectiveAckPacketImpl.ACK_HEADER_SIZE + 2 * Long.BYTES;
 
     private final int myId;
     /* Number of messages sent to each receiver.
@@ -34,15 +46,38 @@ public class StubbornLink implements Link {
      * The final and unique id of a packet is given by the pair (id, senderId).
      */
     private final int[] counters;
-    private final FairLossLink fLink;
+    private final int[] packetSizes; // maximum size of the packets sent to each receiver
+    // Empty packet of each receiver with the longest id: a message it cannot contain can never be sent.
+    private final PayloadPacketImpl[] emptyPackets;
+    private final int[] batchSizes;  // size of the packets sent to each receiver that stops the linger
+    private final long linger;       // maximum time (ns) a packet waits for more messages
+    private final int wireVersion;   // wire format version of the packets sent
+    private final PacketLink fLink;
     private final ExecutorService executor;
-    // Packets sent that wait for the ack.
-    // Key: the packet.
-    // Value: true if the packet can be retransmitted, false otherwise.
-    private final BlockingQueue<Packet>[] packetsSent;
-    private final Consumer<Packet> deliverCallback;
-    private final BlockingQueue<Packet> packetSendBuffer;           // packet to send to the fair loss link
+    private final TimerWheel timerWheel; // retransmission timers of the packets in flight and ack timers
+    private final long ackDelay;         // maximum time (ns) an ack waits before being sent
+    private final int ackThreshold;      // number of packets received that triggers an ack
+    private final PacketArena[] arenas;  // encoded packets waiting for the ack, one arena per receiver
+    // Thread creating the packets, unparked when a window opens or a message is queued.
+    private volatile Thread packetCreator;
+    // Packets sent to each receiver that wait for the ack.
+    private final SendWindow[] packetsSent;
+    // Packets received from each sender, used to build the cumulative and selective acks.
+    private final SequenceWindow[] packetsReceived;
+    // The ack state of each sender, guarded by its packetsReceived window:
+    private final int[] ackPending;         // number of packets received and not acked yet
+    private final long[] ackDeadline;       // time the ack of the pending packets is due
+    private final boolean[] ackTimerArmed;  // true if the ack timer of the sender is armed
+    private final PacketDeliverCallback deliverCallback;
+    private final BlockingQueue<Packet> packetSendBuffer;           // payload packets to send to the fair loss link
+    // Retransmissions that did not fit in the packet send buffer: the timer thread never blocks on it.
+    // Every packet is queued at most once (it is claimed by its window), so it is bounded by the packets in flight.
+    private final Queue<Packet> retransmitBuffer;
     private final BlockingQueue<Message>[] messageSendBuffer;       // messages that have to be added to a packet
+    // Broadcast messages that have to be added to a packet, bounded: a broadcast waits for room.
+    private final List<BlockingQueue<Message>> broadcastSendBuffer;
+    // Relayed and posted messages that have to be added to a packet: sent while delivering, so queuing never blocks.
+    private final List<Queue<Message>> replySendBuffer;
 
     /**
      * Constructor of {@link StubbornLink}.
@@ -50,20 +85,62 @@ public class StubbornLink implements Link {
      * @param myId:      the id of the current process.
      * @param port:      the port to listen to.
      * @param hosts:     the list of hosts.
-     * @param deliverCallback: consumer of packets called every time a packet is received.
+     * @param deliverCallback: callback called every time a packet is received, telling if it is the first time.
+     *                         The packet is only valid during the call.
+     * @param config:    the tunable parameters of the link.
      */
-    public StubbornLink(final int myId, final int port, final Host[] hosts, final Consumer<Packet> deliverCallback) {
+    public StubbornLink(final int myId, final int port, final Host[] hosts,
+        final PacketDeliverCallback deliverCallback, final LinkConfig config) {
         this.myId = myId;
         this.deliverCallback = deliverCallback;
         this.counters = new int[hosts.length];
         Arrays.fill(this.counters, 0);
-        this.packetsSent = new LinkedBlockingQueue[hosts.length];
+        this.wireVersion = config.getWireVersion();
+        this.packetSizes = new int[hosts.length];
+        this.batchSizes = new int[hosts.length];
+        for (var host : hosts) {
+            this.packetSizes[host.getId() - 1] = config.getPacketSize(host);
+            this.batchSizes[host.getId() - 1] = config.getBatchSize(host);
+        }
+        this.emptyPackets = new PayloadPacketImpl[hosts.length];
+        for (var host : hosts) {
+            this.emptyPackets[host.getId() - 1] = new PayloadPacketImpl(Integer.MAX_VALUE, myId, host.getId(),
+                    this.packetSizes[host.getId() - 1] - StubbornLink.PIGGYBACK_ROOM, this.wireVersion);
+        }
+        this.linger = TimeUnit.MICROSECONDS.toNanos(config.getLinger());
+        this.timerWheel = new TimerWheel(this::onTimer);
+        this.ackDelay = TimeUnit.MICROSECONDS.toNanos(config.getAckDelay());
+        this.ackThreshold = config.getAckThreshold();
+        // Every receiver gets an equal share of the arena bytes, split in slots of its own packet size: the receivers
+        // that do not ack (e.g. crashed ones) cannot starve the others, and the receivers with bigger packets do not
+        // shrink the windows of the others. Every receiver can hold one more slot than its window: the packet being
+        // created.
+        final var arenaShare = config.getArenaSize() / Math.max(1, hosts.length - 1);
+        this.arenas = new PacketArena[hosts.length];
+        this.packetsSent = new SendWindow[hosts.length];
+        var minWindowSize = config.getSendWindow();
         for (var i = 0; i < hosts.length; i++) {
             if (i + 1 == myId) {
                 continue;
             }
-            this.packetsSent[i] = new LinkedBlockingQueue<>(StubbornLink.SEND_BUFFER_CAPACITY);
+            final var windowSize = Math.max(1,
+                    Math.min(config.getSendWindow(), arenaShare / this.packetSizes[i] - 1));
+            minWindowSize = Math.min(minWindowSize, windowSize);
+            this.arenas[i] = new PacketArena(windowSize + 1, this.packetSizes[i]);
+            this.packetsSent[i] = new SendWindow(windowSize, i, this.timerWheel);
+        }
+        if (minWindowSize < config.getSendWindow()) {
+            System.err.println("StubbornLink: The arena of " + config.getArenaSize() + " bytes limits the send window to "
+                    + minWindowSize + " packets instead of " + config.getSendWindow() + ", see cs451.arenaSize.");
+        }
+        // The free space of the receive windows is advertised to the peers as credits.
+        this.packetsReceived = new SequenceWindow[hosts.length];
+        for (var i = 0; i < hosts.length; i++) {
+            this.packetsReceived[i] = new SequenceWindow(config.getReceiveWindow());
         }
+        this.ackPending = new int[hosts.length];
+        this.ackDeadline = new long[hosts.length];
+        this.ackTimerArmed = new boolean[hosts.length];
         this.messageSendBuffer = new LinkedBlockingQueue[hosts.length];
         for (int i = 0; i < hosts.length; i++) {
             if (i + 1 == myId) {
@@ -71,151 +148,460 @@ public class StubbornLink implements Link {
             }
             this.messageSendBuffer[i] = new LinkedBlockingQueue<>(StubbornLink.SEND_BUFFER_CAPACITY);
         }
+        this.broadcastSendBuffer = new ArrayList<>(hosts.length);
+        this.replySendBuffer = new ArrayList<>(hosts.length);
+        for (int i = 0; i < hosts.length; i++) {
+            final var isMe = i + 1 == myId;
+            this.broadcastSendBuffer.add(isMe ? null : new LinkedBlockingQueue<>(config.getBroadcastBuffer()));
+            this.replySendBuffer.add(isMe ? null : new ConcurrentLinkedQueue<>());
+        }
         this.packetSendBuffer = new LinkedBlockingQueue<>(StubbornLink.SEND_BUFFER_CAPACITY);
-        this.fLink = new FairLossLink(port, hosts, this::deliver);
+        this.retransmitBuffer = new ConcurrentLinkedQueue<>();
+        if (config.getTransport() == LinkConfig.Transport.CHANNEL) {
+            this.fLink = new ChannelFairLossLink(port, hosts, this::deliver, config);
+        } else {
+            this.fLink = new FairLossLink(port, hosts, this::deliver, config);
+        }
         this.executor = Executors.newFixedThreadPool(StubbornLink.NUM_THREADS);
         this.executor.execute(this::createPackets);     // one thread to create packets.
-        this.executor.execute(this::retransmitPackets); // one thread to retransmit packets.
+        this.executor.execute(this.timerWheel);         // one thread to retransmit packets.
         this.executor.execute(this::sendPackets);       // one thread to send packets to fair-loss.
     }
 
+    /**
+     * Send a message to its receiver, waiting if too many messages are queued for it.
+     *
+     * @param message: the message to send.
+     * @throws IllegalArgumentException if the message does not fit in a packet to its receiver.
+     */
     @Override
     public void send(final Message message) {
-        try {
-            this.messageSendBuffer[message.getReceiverId() - 1].put(message);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        this.checkLength(message.getReceiverId() - 1, message);
+        this.enqueue(message.getReceiverId() - 1, message);
+    }
+
+    /**
+     * Send a message to every other host.
+     * The same message is queued for every receiver: its payload is only written into the packets
+     * of each receiver, and its receiver id is ignored.
+     * It waits while {@link LinkConfig#getBroadcastBuffer()} messages are queued for a receiver, so it must not be
+     * called while delivering: the thread could wait for room that only the acks it handles can make
+     * (see {@link #relay(Message)}).
+     * If interrupted while waiting, the message is not queued for the remaining receivers and the interrupt
+     * status is set.
+     *
+     * @param message: the message to send.
+     * @throws IllegalArgumentException if the message does not fit in a packet to some receiver.
+     */
+    public void broadcast(final Message message) {
+        this.checkLength(message);
+        for (var queue : this.broadcastSendBuffer) {
+            if (queue == null) {
+                continue;
+            }
+            try {
+                queue.put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            LockSupport.unpark(this.packetCreator);
         }
     }
 
+    /**
+     * Send a message to every other host without blocking, like {@link #broadcast(Message)}.
+     * It is meant for the messages sent while delivering (e.g. the relays of a broadcast): they are not bounded by
+     * the broadcast buffer, but by the messages broadcast that trigger them, which are.
+     *
+     * @param message: the message to send.
+     * @throws IllegalArgumentException if the message does not fit in a packet to some receiver.
+     */
+    public void relay(final Message message) {
+        this.checkLength(message);
+        for (var queue : this.replySendBuffer) {
+            if (queue != null) {
+                queue.add(message);
+            }
+        }
+        LockSupport.unpark(this.packetCreator);
+    }
+
+    /**
+     * Send a message without blocking, like {@link #relay(Message)} but to its receiver only.
+     * It is meant for the replies sent while delivering (e.g. acks of a protocol), whose memory is bounded
+     * by the messages they answer.
+     *
+     * @param message: the message to send.
+     * @throws IllegalArgumentException if the message does not fit in a packet to its receiver.
+     */
+    public void post(final Message message) {
+        this.checkLength(message.getReceiverId() - 1, message);
+        this.replySendBuffer.get(message.getReceiverId() - 1).add(message);
+        LockSupport.unpark(this.packetCreator);
+    }
+
+    /**
+     * Get the current retransmission timeout of a peer, backoff included.
+     *
+     * @param hostId: the id of the peer.
+     * @return The retransmission timeout in microseconds.
+     */
+    public long getRetransmissionTimeout(final int hostId) {
+        return TimeUnit.NANOSECONDS.toMicros(this.packetsSent[hostId - 1].getRttEstimator().getRto());
+    }
+
+    /**
+     * Get the smoothed round trip time of a peer.
+     *
+     * @param hostId: the id of the peer.
+     * @return The smoothed round trip time in microseconds, 0 if not measured yet.
+     */
+    public long getSmoothedRtt(final int hostId) {
+        return TimeUnit.NANOSECONDS.toMicros(this.packetsSent[hostId - 1].getRttEstimator().getSrtt());
+    }
+
+    /**
+     * Get the retransmission backoff level of a peer.
+     *
+     * @param hostId: the id of the peer.
+     * @return The number of consecutive retransmission timeouts.
+     */
+    public int getBackoff(final int hostId) {
+        return this.packetsSent[hostId - 1].getRttEstimator().getBackoff();
+    }
+
+    /**
+     * Get the credits left to send to a peer.
+     *
+     * @param hostId: the id of the peer.
+     * @return The number of packets that can still be sent before the peer acks.
+     */
+    public int getCredits(final int hostId) {
+        return this.packetsSent[hostId - 1].getCredits();
+    }
+
+    /**
+     * Get the congestion window of a peer.
+     *
+     * @param hostId: the id of the peer.
+     * @return The maximum number of packets in flight to the peer allowed by the congestion control.
+     */
+    public int getCongestionWindow(final int hostId) {
+        return this.packetsSent[hostId - 1].getCongestionWindow();
+    }
+
+    /**
+     * Get the slow start threshold of a peer.
+     *
+     * @param hostId: the id of the peer.
+     * @return The congestion window size above which the window of the peer grows linearly.
+     */
+    public int getSlowStartThreshold(final int hostId) {
+        return this.packetsSent[hostId - 1].getSlowStartThreshold();
+    }
+
     @Override
     public void close() {
-        this.executor.shutdown();
-        try {
-            if (!this.executor.awaitTermination(StubbornLink.SOCKET_TERMINATION_TIME, TimeUnit.MILLISECONDS)) {
-                this.executor.shutdownNow();
+        // The threads loop until interrupted: interrupt them right away, without waiting for them.
+        this.executor.shutdownNow();
+        this.fLink.close();
+    }
+
+    /*
+     * Reject a message that does not fit in an empty packet to every other host.
+     */
+    private void checkLength(final Message message) {
+        for (var i = 0; i < this.emptyPackets.length; i++) {
+            if (i + 1 != this.myId) {
+                this.checkLength(i, message);
             }
+        }
+    }
+
+    /*
+     * Reject a message that does not fit in an empty packet to a receiver:
+     * queued, it would block the messages behind it forever.
+     */
+    private void checkLength(final int receiverIndex, final Message message) {
+        if (!this.emptyPackets[receiverIndex].canContainMessage(message.getLength())) {
+            throw new IllegalArgumentException("Message of " + message.getLength() + " bytes too big for the "
+                    + this.packetSizes[receiverIndex] + " bytes packets to host " + (receiverIndex + 1) + ".");
+        }
+    }
+
+    /*
+     * Queue a message for a receiver, waiting if its queue is full.
+     * Return false if interrupted.
+     */
+    private boolean enqueue(final int receiverIndex, final Message message) {
+        final var queue = this.messageSendBuffer[receiverIndex];
+        try {
+            queue.put(message);
         } catch (InterruptedException e) {
-            this.executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return false;
         }
-        this.fLink.close();
+        // Wake up the packet creation if it was idle.
+        if (queue.size() == 1) {
+            LockSupport.unpark(this.packetCreator);
+        }
+        return true;
     }
 
     private void deliver(final Packet packet) {
         if (packet.isAck()) {
-            // need to create a dummy payload packet to remove it from the set
-            var dummyPacket = new PayloadPacketImpl(packet.getId(), packet.getReceiverId(), packet.getSenderId());
-            this.packetsSent[packet.getSenderId() - 1].remove(dummyPacket);
+            this.releasePackets(packet);
         } else {
-            try {
-                this.packetSendBuffer.put(packet.toAck());
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            final var senderId = packet.getSenderId();
+            final var received = this.packetsReceived[senderId - 1];
+            Packet ack = null;
+            final boolean first;
+            var armTimer = false;
+            long deadline = 0;
+            // The fair-loss link may deliver from more than one thread.
+            synchronized (received) {
+                // Ignore the packets that cannot be tracked yet, the sender will retransmit them.
+                if (received.isBeyond(packet.getId())) {
+                    return;
+                }
+                first = received.add(packet.getId());
+                if (!first) {
+                    // A duplicate is acked right away: the previous ack was probably lost.
+                    ack = this.takeAck(senderId, SelectiveAckPacketImpl.MAX_SACK_WORDS);
+                } else if (++this.ackPending[senderId - 1] >= this.ackThreshold || this.ackDelay == 0) {
+                    ack = this.takeAck(senderId, SelectiveAckPacketImpl.MAX_SACK_WORDS);
+                } else if (this.ackPending[senderId - 1] == 1) {
+                    // First packet of a new batch: its ack is due after the delay.
+                    deadline = System.nanoTime() + this.ackDelay;
+                    this.ackDeadline[senderId - 1] = deadline;
+                    armTimer = !this.ackTimerArmed[senderId - 1];
+                    this.ackTimerArmed[senderId - 1] = true;
+                }
+            }
+            if (armTimer) {
+                this.timerWheel.arm(StubbornLink.ackTimerKey(senderId), deadline);
+            }
+            // The acks skip the payload packets queued: the receive thread never blocks on them.
+            if (ack != null) {
+                this.fLink.send(ack);
+            }
+            this.deliverCallback.deliver(packet, first);
+        }
+    }
+
+    /*
+     * Release from the packets sent all the packets acknowledged by the ack,
+     * and wake up the packet creation if the window of the peer opened.
+     */
+    private void releasePackets(final Packet ack) {
+        if (this.packetsSent[ack.getSenderId() - 1].release(ack.getId(), ack.getSelectiveAcks(), ack.getCredits())) {
+            LockSupport.unpark(this.packetCreator);
+        }
+    }
+
+    /*
+     * Build the ack of the packets received from a sender, which acks all its pending packets.
+     * The caller must hold the lock of the packetsReceived window of the sender.
+     */
+    private Packet takeAck(final int senderId, final int maxWords) {
+        final var received = this.packetsReceived[senderId - 1];
+        this.ackPending[senderId - 1] = 0;
+        return new SelectiveAckPacketImpl(
+                received.getWatermark(),
+                this.myId,
+                senderId,
+                received.getSelectiveAcks(maxWords),
+                received.getCredits()
+        );
+    }
+
+    /*
+     * Called by the timer wheel when a timer expires: either the ack timer of a sender
+     * (ACK_TIMER | sender index << 32) or the retransmission timer of a packet (receiver index << 32 | packet id).
+     */
+    private void onTimer(final long key) {
+        if ((key & StubbornLink.ACK_TIMER) != 0) {
+            this.flushAck((int) ((key & ~StubbornLink.ACK_TIMER) >>> Integer.SIZE) + 1);
+        } else {
+            this.retransmitPacket(key);
+        }
+    }
+
+    /*
+     * Key of the ack timer of a sender in the timer wheel.
+     */
+    private static long ackTimerKey(final int senderId) {
+        return StubbornLink.ACK_TIMER | (long) (senderId - 1) << Integer.SIZE;
+    }
+
+    /*
+     * Send the pending ack of a sender on its own: neither the threshold nor a payload packet flushed it in time.
+     * The timer stays armed across batches: if the pending packets are younger than the delay
+     * (the batch that armed it was already acked), it is armed again for their deadline.
+     */
+    private void flushAck(final int senderId) {
+        final Packet ack;
+        long deadline = 0;
+        synchronized (this.packetsReceived[senderId - 1]) {
+            this.ackTimerArmed[senderId - 1] = false;
+            if (this.ackPending[senderId - 1] == 0) {
                 return;
             }
-            this.deliverCallback.accept(packet);
+            if (System.nanoTime() - this.ackDeadline[senderId - 1] < 0) {
+                deadline = this.ackDeadline[senderId - 1];
+                this.ackTimerArmed[senderId - 1] = true;
+                ack = null;
+            } else {
+                ack = this.takeAck(senderId, SelectiveAckPacketImpl.MAX_SACK_WORDS);
+            }
         }
+        if (ack == null) {
+            this.timerWheel.arm(StubbornLink.ackTimerKey(senderId), deadline);
+            return;
+        }
+        this.fLink.send(ack);
     }
 
-    private void retransmitPackets() {
-        // Use a timer for each receiver.
-        final var timers = new long[this.packetsSent.length];
-        Arrays.fill(timers, System.currentTimeMillis());
-        while (!Thread.currentThread().isInterrupted()) {
-            for (var i = 0; i < this.packetsSent.length; i++) {
-                if (this.myId == i + 1) {
-                    continue;
-                }
-                final var now = System.currentTimeMillis();
-                // Retransmit the messages sent to the receiver i if the timer is expired.
-                if (now - timers[i] >= StubbornLink.RETRANSMISSION_TIME) {
-                    for (var packet : this.packetsSent[i]) {
-                        try {
-                            if (packet.canTransmit()) {
-                                packet.setTransmit(false);
-                                this.packetSendBuffer.put(packet);
-                            }
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            return;
-                        }
-                    }
-                    timers[i] = now;
-                }
+    /*
+     * Attach the pending ack of the receiver of a payload packet to it, if any.
+     * The ack gets as many selective ack words as fit in the packet size.
+     */
+    private Packet piggyback(final Packet packet) {
+        final var receiverId = packet.getReceiverId();
+        final var room = this.packetSizes[receiverId - 1] - packet.getLength() - SelectiveAckPacketImpl.ACK_HEADER_SIZE;
+        if (room < 0) {
+            return packet;
+        }
+        synchronized (this.packetsReceived[receiverId - 1]) {
+            if (this.ackPending[receiverId - 1] == 0) {
+                return packet;
             }
+            return new PiggybackPacketImpl(
+                    this.takeAck(receiverId, Math.min(SelectiveAckPacketImpl.MAX_SACK_WORDS, room / Long.BYTES)),
+                    packet);
+        }
+    }
+
+    /*
+     * Queue again a packet whose retransmission timer expired.
+     * It runs on the timer thread, which also fires the ack timers: if the packet send buffer is full,
+     * the packet is handed to the sending thread through the retransmit buffer instead of waiting.
+     */
+    private void retransmitPacket(final long key) {
+        final var packet = this.packetsSent[(int) (key >>> Integer.SIZE)].expire((int) key);
+        if (packet != null && !this.packetSendBuffer.offer(packet)) {
+            this.retransmitBuffer.add(packet);
         }
     }
 
     /*
      * The packets are created only one time.
+     * A packet is sent as soon as it is full or reaches the batch size of its receiver,
+     * otherwise it lingers up to the linger time waiting for more messages.
      */
     private void createPackets() {
-        // Continuously try to create packets.
-        int id;
-        Packet packet;
-        int numAttempts;
+        this.packetCreator = Thread.currentThread();
+        // Packet being filled for each receiver: it keeps absorbing messages while the receiver
+        // is out of space or credit, so consecutive ids pile up into ranges instead of packets.
+        final var pending = new PayloadPacketImpl[this.messageSendBuffer.length];
+        final var lingerDeadlines = new long[this.messageSendBuffer.length]; // time each pending packet is due
+        Message message;
+        Queue<Message> queue;
+        PayloadPacketImpl packet;
+        boolean progress;
+        boolean full;
+        long now;
+        long wakeUp;
         while (!Thread.currentThread().isInterrupted()) {
+            progress = false;
+            now = System.nanoTime();
+            wakeUp = now + StubbornLink.IDLE_WAIT_TIME;
             for (var i = 0; i < this.messageSendBuffer.length; i++) {
                 if (this.myId == i + 1) {
                     continue;
                 }
-                // Peek without removing from the queue.
-                Message message = this.messageSendBuffer[i].peek();
-                if (message != null) {
-                    // Try NUM ATTEMPTS times to fill a packet to avoid
-                    // sending too empty packets.
-                    numAttempts = 0;
-                    this.counters[i]++;
-                    id = this.counters[i];
-                    packet = new PayloadPacketImpl(id, this.myId);
-                    while (numAttempts < StubbornLink.NUM_ATTEMPTS && packet.canContainMessage(message.getLength())) {
-                        try {
-                            var messageToAdd = this.messageSendBuffer[i].take();
-                            packet.addMessage(messageToAdd);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            return;
-                        }
-                        message = this.messageSendBuffer[i].peek();
-                        // If there are yet at least PACKET_LOWER_BOUND messages in the packet,
-                        // no need to wait for more messages.
-                        if (message == null && packet.getMessages().size() >= StubbornLink.PACKET_LOWER_BOUND) {
-                            break;
-                        }
-                        // Else wait for more messages.
-                        while (message == null && numAttempts < StubbornLink.NUM_ATTEMPTS) {
-                            numAttempts++;
-                        }
+                packet = pending[i];
+                full = false;
+                // Fill the packet with the messages available.
+                while ((message = (queue = this.nextQueue(i)).peek()) != null) {
+                    if (packet == null) {
+                        // Keep some room for a piggybacked ack.
+                        packet = new PayloadPacketImpl(this.counters[i] + 1, this.myId, i + 1,
+                                this.packetSizes[i] - StubbornLink.PIGGYBACK_ROOM, this.wireVersion);
+                        pending[i] = packet;
+                        lingerDeadlines[i] = now + this.linger;
                     }
-                    try {
-                        this.packetSendBuffer.put(packet);
-                        this.packetsSent[i].put(packet);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        return;
+                    // The packet is not empty: every message queued fits in an empty packet (see checkLength).
+                    if (!packet.canContainMessage(message)) {
+                        full = true;
+                        break;
                     }
+                    packet.addMessage(queue.poll());
+                    progress = true;
+                }
+                if (packet == null || packet.getNumMessages() == 0) {
+                    continue;
+                }
+                // Let the packet linger for more messages, unless it is big enough.
+                if (!full && packet.getLength() + StubbornLink.PIGGYBACK_ROOM < this.batchSizes[i]
+                        && now - lingerDeadlines[i] < 0) {
+                    wakeUp = Math.min(wakeUp, lingerDeadlines[i]);
+                    continue;
                 }
+                // Stop producing for the peers that are out of space or credit.
+                if (!this.packetsSent[i].canAdd(packet.getId())) {
+                    continue;
+                }
+                try {
+                    // Encode the packet once: every (re)transmission copies the encoded bytes.
+                    packet.encode(this.arenas[i]);
+                    // Track the packet before sending it, so its ack cannot be missed.
+                    this.packetsSent[i].add(packet);
+                    this.packetSendBuffer.put(packet);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                this.counters[i]++;
+                pending[i] = null;
+                progress = true;
+            }
+            // No message to take and no packet to send: park until new work or the first linger deadline.
+            if (!progress) {
+                LockSupport.parkNanos(this, wakeUp - now);
             }
         }
     }
 
+    /*
+     * Queue to take the next message to a receiver from: the messages sent, the ones relayed or posted,
+     * then the ones broadcast. The replies go first, as the peers may be waiting for them.
+     */
+    private Queue<Message> nextQueue(final int receiverIndex) {
+        if (!this.messageSendBuffer[receiverIndex].isEmpty()) {
+            return this.messageSendBuffer[receiverIndex];
+        }
+        final var replies = this.replySendBuffer.get(receiverIndex);
+        return replies.isEmpty() ? this.broadcastSendBuffer.get(receiverIndex) : replies;
+    }
+
+    /*
+     * Send the packets to the fair-loss link, the retransmissions handed over by the timer first.
+     * A retransmission is only handed over while the packet send buffer is full, so it is taken
+     * after at most the packets already queued, or the idle wait if they are all sent in the meantime.
+     */
     private void sendPackets() {
         Packet packet;
         while (!Thread.currentThread().isInterrupted()) {
-            Runtime runtime = Runtime.getRuntime();
-            // To convert from Bytes to MegaBytes:
-            // 1 MB = 1024 KB and 1 KB = 1024 Bytes.
-            // Therefore, 1 MB = 1024 * 1024 Bytes.
-            long MegaBytes = 1024 * 1024;
-            long totalMemory = runtime.totalMemory() / MegaBytes;       
-            long freeMemory = runtime.freeMemory() / MegaBytes;    
-            long memoryInUse = totalMemory - freeMemory;
-            if (memoryInUse > 50) {
-                System.gc();
-            }
             try {
-                packet = this.packetSendBuffer.take();
-                this.fLink.send(packet);
+                packet = this.retransmitBuffer.poll();
+                if (packet == null) {
+                    packet = this.packetSendBuffer.poll(StubbornLink.IDLE_WAIT_TIME, TimeUnit.NANOSECONDS);
+                }
+                if (packet != null) {
+                    this.fLink.send(this.piggyback(packet));
+                }
            } catch (InterruptedException e) {
                Thread.currentThread().interrupt();
                return;
@@ -0,0 +1,138 @@
+package cs451.links;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * Hashed timing wheel. Every timer is a (key, deadline) pair stored in the bucket of its deadline tick
+ * (tick mod number of buckets), so arming a timer is O(1) and every tick only visits the timers of
+ * its bucket. Timers farther than a full turn of the wheel stay in their bucket until their round comes.
+ * Timers are never cancelled: the listener must ignore the keys that are no longer relevant.
+ * The thread running the wheel parks between ticks and waits when there are no timers.
+ * The buckets are primitive arrays, so arming a timer does not allocate in steady state.
+ */
+class TimerWheel implements Runnable {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int NUM_BUCKETS = 1024; // a turn of the wheel lasts ~1 s
+    private static final int INITIAL_BUCKET_CAPACITY = 16;
+
+    private final long start;
+    private final long[][] keys;      // keys of the timers of each bucket
+    private final long[][] deadlines; // deadline ticks of the timers of each bucket
+    private final int[] sizes;        // number of timers of each bucket
+    private final LongConsumer listener;
+    private int size;                 // total number of timers
+    private long currentTick;         // last tick processed
+
+    /**
+     * Constructor of {@link TimerWheel}.
+     *
+     * @param listener: consumer of the keys of the expired timers, called by the thread running the wheel.
+     */
+    TimerWheel(final LongConsumer listener) {
+        this.listener = listener;
+        this.start = System.nanoTime();
+        this.keys = new long[TimerWheel.NUM_BUCKETS][TimerWheel.INITIAL_BUCKET_CAPACITY];
+        this.deadlines = new long[TimerWheel.NUM_BUCKETS][TimerWheel.INITIAL_BUCKET_CAPACITY];
+        this.sizes = new int[TimerWheel.NUM_BUCKETS];
+        this.size = 0;
+        this.currentTick = 0;
+    }
+
+    /**
+     * Arm a timer.
+     *
+     * @param key:      the key passed to the listener when the timer expires.
+     * @param deadline: the expiration time (in System.nanoTime() units).
+     */
+    synchronized void arm(final long key, final long deadline) {
+        if (this.size == 0) {
+            // Nothing is pending, so the ticks elapsed while the wheel was idle can be skipped.
+            this.currentTick = Math.max(this.currentTick, this.tickOf(System.nanoTime()) - 1);
+        }
+        var tick = (deadline - this.start + TimerWheel.TICK - 1) / TimerWheel.TICK;
+        if (tick <= this.currentTick) {
+            tick = this.currentTick + 1;
+        }
+        final var bucket = (int) (tick & (TimerWheel.NUM_BUCKETS - 1));
+        final var n = this.sizes[bucket];
+        if (n == this.keys[bucket].length) {
+            this.keys[bucket] = Arrays.copyOf(this.keys[bucket], n * 2);
+            this.deadlines[bucket] = Arrays.copyOf(this.deadlines[bucket], n * 2);
+        }
+        this.keys[bucket][n] = key;
+        this.deadlines[bucket][n] = tick;
+        this.sizes[bucket] = n + 1;
+        if (this.size++ == 0) {
+            this.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        // Reused buffer of the keys of the expired timers.
+        var expired = new long[TimerWheel.INITIAL_BUCKET_CAPACITY];
+        int numExpired;
+        long nowTick;
+        long nextTick;
+        while (!Thread.currentThread().isInterrupted()) {
+            synchronized (this) {
+                try {
+                    while (this.size == 0) {
+                        this.wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                nextTick = this.start + (this.currentTick + 1) * TimerWheel.TICK;
+            }
+            // Park until the next tick.
+            final var delay = nextTick - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay);
+                continue;
+            }
+            synchronized (this) {
+                nowTick = this.tickOf(System.nanoTime());
+                // Visit every bucket at most once, even after a long pause.
+                final var numTicks = Math.min(nowTick - this.currentTick, TimerWheel.NUM_BUCKETS);
+                numExpired = 0;
+                for (var t = nowTick - numTicks + 1; t <= nowTick; t++) {
+                    final var bucket = (int) (t & (TimerWheel.NUM_BUCKETS - 1));
+                    final var bucketKeys = this.keys[bucket];
+                    final var bucketDeadlines = this.deadlines[bucket];
+                    var kept = 0;
+                    for (var i = 0; i < this.sizes[bucket]; i++) {
+                        if (bucketDeadlines[i] <= nowTick) {
+                            if (numExpired == expired.length) {
+                                expired = Arrays.copyOf(expired, numExpired * 2);
+                            }
+                            expired[numExpired++] = bucketKeys[i];
+                        } else {
+                            // Not in this round: keep it.
+                            bucketKeys[kept] = bucketKeys[i];
+                            bucketDeadlines[kept] = bucketDeadlines[i];
+                            kept++;
+                        }
+                    }
+                    this.size -= this.sizes[bucket] - kept;
+                    this.sizes[bucket] = kept;
+                }
+                this.currentTick = nowTick;
+            }
+            // Fire outside the lock, so the listener can arm new timers.
+            for (var i = 0; i < numExpired; i++) {
+                this.listener.accept(expired[i]);
+            }
+        }
+    }
+
+    private long tickOf(final long time) {
+        return (time - this.start) / TimerWheel.TICK;
+    }
+
+}
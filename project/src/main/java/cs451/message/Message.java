@@ -12,6 +12,13 @@ public interface Message {
      */
     int getId();
 
+    /**
+     * Get the number of consecutive ids carried by the message: from getId() to getId() + getNumIds() - 1.
+     *
+     * @return The number of ids, 1 for a single message.
+     */
+    int getNumIds();
+
     /**
      * Get the id of the sender.
      *
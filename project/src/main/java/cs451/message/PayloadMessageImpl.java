@@ -32,6 +32,11 @@ public class PayloadMessageImpl implements Message {
         return this.id;
     }
 
+    @Override
+    public int getNumIds() {
+        return 1;
+    }
+
     public int getSenderId() {
         return this.senderId + 1;
     }
@@ -0,0 +1,104 @@
+package cs451.message;
+
+/**
+ * Implementation of {@link Message} for a range of consecutive messages with an empty payload:
+ * "sender s, ids a..b". It stands for b - a + 1 messages without one object per id.
+ * A range can only be sent with the version 2 wire format, so it has no byte representation of its own.
+ */
+public class RangeMessageImpl implements Message {
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final int id;               // id of the first message of the range
+    private final int numIds;           // number of messages of the range
+    private final byte senderId;        // id of the sender (max value: 128)
+    private final byte receiverId;      // id of the receiver (max value: 128)
+
+    /**
+     * Constructor of {@link RangeMessageImpl}.
+     *
+     * @param id:         the id of the first message of the range.
+     * @param numIds:     the number of messages of the range.
+     * @param senderId:   the id of the sender.
+     * @param receiverId: the id of the receiver.
+     */
+    public RangeMessageImpl(final int id, final int numIds, final int senderId, final int receiverId) {
+        if (numIds <= 0) {
+            throw new IllegalArgumentException("A range must contain at least one message.");
+        }
+        this.id = id;
+        this.numIds = numIds;
+        this.senderId = (byte)((senderId - 1) & 0xFF);
+        this.receiverId = (byte)((receiverId - 1) & 0xFF);
+    }
+
+    @Override
+    public int getId() {
+        return this.id;
+    }
+
+    @Override
+    public int getNumIds() {
+        return this.numIds;
+    }
+
+    /**
+     * Get the id of the last message of the range.
+     *
+     * @return The id of the last message.
+     */
+    public int getLastId() {
+        return this.id + this.numIds - 1;
+    }
+
+    @Override
+    public int getSenderId() {
+        return this.senderId + 1;
+    }
+
+    @Override
+    public int getReceiverId() {
+        return this.receiverId + 1;
+    }
+
+    @Override
+    public int getLength() {
+        return PayloadMessageImpl.HEADER_SIZE;
+    }
+
+    @Override
+    public byte[] getPayload() {
+        return RangeMessageImpl.EMPTY_PAYLOAD;
+    }
+
+    @Override
+    public byte[] serialize() {
+        throw new UnsupportedOperationException("Ranges only exist in the version 2 wire format.");
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (this.getClass() != obj.getClass()) {
+            return false;
+        }
+        return (this.getId() == ((Message) obj).getId())
+                && (this.getNumIds() == ((Message) obj).getNumIds())
+                && (this.getSenderId() == ((Message) obj).getSenderId())
+                && (this.getReceiverId() == ((Message) obj).getReceiverId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(this.id)
+                + Integer.hashCode(this.numIds)
+                + Integer.hashCode(this.getSenderId())
+                + Integer.hashCode(this.getReceiverId());
+    }
+
+}
@@ -0,0 +1,297 @@
+package cs451.output;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writer of the output file (the "b seq" and "d sender seq" lines, or the decisions of the lattice agreement).
+ * The lines are formatted straight into reusable byte chunks, without strings nor charset encoding.
+ * Every full chunk is handed to a background thread through a lock-free queue, and the thread writes all
+ * the chunks available with a single gathering write (group commit). The events are only serialized by the
+ * short append of a line, so the order of the lines is the order of the calls.
+ * The chunks are bounded (see {@link #MAX_CHUNKS}): if the disk cannot keep up, the callers wait for it.
+ * If the background thread fails, the callers stop waiting and the lines are dropped: {@link #close()} reports the error.
+ * The background thread keeps the backlog to a few chunks, so {@link #close()}, which writes everything left,
+ * only has the last chunks to write. It must be called before the process exits.
+ */
+public class OutputWriter {
+
+    private static final int CHUNK_SIZE = 64 << 10;       // size of a chunk in bytes
+    private static final int MAX_CHUNKS = 64;             // maximum number of chunks (4 MiB)
+    private static final int MAX_LINE_SIZE = 32;          // longest line: "d " + 2 ints + separators
+    private static final int MAX_INT_SIZE = 11;           // longest int with its separator
+    private static final int MAX_BATCH = 16;              // maximum number of chunks written at once
+    private static final long GROUP_COMMIT_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long WAIT_TIME = TimeUnit.MICROSECONDS.toNanos(100); // wait for a free chunk
+
+    private final FileChannel channel;
+    private final ConcurrentLinkedQueue<Chunk> fullChunks; // chunks to write, in order
+    private final ConcurrentLinkedQueue<Chunk> freeChunks; // chunks written, ready to be reused
+    private final Thread writerThread;
+    private final ByteBuffer[] batch;                      // reused buffers of a group commit
+    private final Chunk[] batchChunks;                     // chunks of the group commit
+    private Chunk current;     // chunk being filled, guarded by this
+    private int numChunks;     // number of chunks allocated, guarded by this
+    private boolean closed;    // true once closed: the lines are dropped, guarded by this
+    private volatile boolean stopped; // true once the background thread must stop
+    private volatile IOException error; // first error of the background thread
+    private volatile long bytesWritten; // written by one thread at a time: the background thread, then close()
+
+    /*
+     * A chunk of formatted lines.
+     */
+    private static final class Chunk {
+        private final byte[] data = new byte[OutputWriter.CHUNK_SIZE];
+        private int length;
+    }
+
+    /**
+     * Constructor of {@link OutputWriter}.
+     * It creates (or truncates) the output file and starts the background thread.
+     *
+     * @param path: the path of the output file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public OutputWriter(final String path) throws IOException {
+        this.channel = new FileOutputStream(path).getChannel();
+        this.fullChunks = new ConcurrentLinkedQueue<>();
+        this.freeChunks = new ConcurrentLinkedQueue<>();
+        this.batch = new ByteBuffer[OutputWriter.MAX_BATCH];
+        this.batchChunks = new Chunk[OutputWriter.MAX_BATCH];
+        this.current = new Chunk();
+        this.numChunks = 1;
+        this.closed = false;
+        this.stopped = false;
+        this.writerThread = new Thread(this::writeChunks, "output-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Log the broadcast of a message: "b seq".
+     *
+     * @param seqNum: the sequence number of the message.
+     */
+    public synchronized void broadcast(final int seqNum) {
+        if (this.reserve(OutputWriter.MAX_LINE_SIZE)) {
+            this.put((byte) 'b');
+            this.put((byte) ' ');
+            this.putInt(seqNum);
+            this.put((byte) '\n');
+        }
+    }
+
+    /**
+     * Log the delivery of a message: "d sender seq".
+     *
+     * @param senderId: the id of the sender of the message.
+     * @param seqNum:   the sequence number of the message.
+     */
+    public synchronized void deliver(final int senderId, final int seqNum) {
+        if (this.reserve(OutputWriter.MAX_LINE_SIZE)) {
+            this.put((byte) 'd');
+            this.put((byte) ' ');
+            this.putInt(senderId);
+            this.put((byte) ' ');
+            this.putInt(seqNum);
+            this.put((byte) '\n');
+        }
+    }
+
+    /**
+     * Log a decision: its values separated by spaces.
+     * A decision can be longer than a chunk: room is reserved value by value.
+     *
+     * @param values: the buffer holding the values, non-negative.
+     * @param count:  the number of values.
+     */
+    public synchronized void decide(final int[] values, final int count) {
+        if (this.closed) {
+            return;
+        }
+        for (var i = 0; i < count; i++) {
+            if (!this.reserve(OutputWriter.MAX_INT_SIZE)) {
+                return;
+            }
+            if (i > 0) {
+                this.put((byte) ' ');
+            }
+            this.putInt(values[i]);
+        }
+        if (this.reserve(1)) {
+            this.put((byte) '\n');
+        }
+    }
+
+    /**
+     * Stop accepting lines: the lines logged afterwards are dropped.
+     * It does not write anything, so it can be called as soon as the process must stop.
+     */
+    public synchronized void seal() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.current.length > 0) {
+            this.fullChunks.add(this.current);
+        }
+    }
+
+    /**
+     * Write every line logged so far and close the file.
+     * The lines logged afterwards are dropped.
+     *
+     * @throws IOException if the output could not be written.
+     */
+    public void close() throws IOException {
+        this.seal();
+        if (this.stopped) {
+            return;
+        }
+        // Let the background thread finish its group commit, then write the rest here.
+        this.stopped = true;
+        LockSupport.unpark(this.writerThread);
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (this.error != null) {
+                throw this.error;
+            }
+            while (this.writeBatch()) {
+                // Write until no chunk is left.
+            }
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Get the number of bytes written to the file so far.
+     *
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /*
+     * Make sure the current chunk has room for some bytes, handing it to the background thread if it is full.
+     * Return false if the writer is closed or failed: the line must be dropped.
+     */
+    private boolean reserve(final int size) {
+        if (this.closed || this.error != null) {
+            return false;
+        }
+        if (OutputWriter.CHUNK_SIZE - this.current.length < size) {
+            final var chunk = this.takeFreeChunk();
+            if (chunk == null) {
+                return false;
+            }
+            this.fullChunks.add(this.current);
+            LockSupport.unpark(this.writerThread);
+            this.current = chunk;
+        }
+        return true;
+    }
+
+    /*
+     * Take a chunk written by the background thread, or allocate one if the limit is not reached.
+     * Otherwise wait for the background thread to write one.
+     * Return null if the background thread failed or stopped, as no chunk would ever be freed.
+     */
+    private Chunk takeFreeChunk() {
+        Chunk chunk;
+        while ((chunk = this.freeChunks.poll()) == null) {
+            if (this.numChunks < OutputWriter.MAX_CHUNKS) {
+                this.numChunks++;
+                return new Chunk();
+            }
+            if (this.error != null || this.stopped) {
+                return null;
+            }
+            LockSupport.parkNanos(this, OutputWriter.WAIT_TIME);
+        }
+        chunk.length = 0;
+        return chunk;
+    }
+
+    private void put(final byte b) {
+        this.current.data[this.current.length++] = b;
+    }
+
+    /*
+     * Write the decimal digits of a non-negative int, most significant first.
+     */
+    private void putInt(int value) {
+        final var data = this.current.data;
+        var numDigits = 1;
+        for (var bound = 10; numDigits < 10 && value >= bound; bound *= 10) {
+            numDigits++;
+        }
+        var pos = this.current.length + numDigits;
+        this.current.length = pos;
+        do {
+            data[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+    }
+
+    /*
+     * Background thread: write the full chunks as they come, grouping the ones available.
+     */
+    private void writeChunks() {
+        while (!this.stopped) {
+            try {
+                if (!this.writeBatch()) {
+                    LockSupport.parkNanos(this, OutputWriter.GROUP_COMMIT_INTERVAL);
+                }
+            } catch (IOException e) {
+                System.out.println("Error writing to output file.");
+                this.error = e;
+                return;
+            }
+        }
+    }
+
+    /*
+     * Write up to MAX_BATCH full chunks with a single gathering write and recycle them.
+     * Return false if there was no chunk to write.
+     */
+    private boolean writeBatch() throws IOException {
+        var numBuffers = 0;
+        Chunk chunk;
+        while (numBuffers < OutputWriter.MAX_BATCH && (chunk = this.fullChunks.poll()) != null) {
+            this.batchChunks[numBuffers] = chunk;
+            this.batch[numBuffers] = ByteBuffer.wrap(chunk.data, 0, chunk.length);
+            numBuffers++;
+        }
+        if (numBuffers == 0) {
+            return false;
+        }
+        var remaining = 0L;
+        for (var i = 0; i < numBuffers; i++) {
+            remaining += this.batch[i].remaining();
+        }
+        long written;
+        while (remaining > 0) {
+            written = this.channel.write(this.batch, 0, numBuffers);
+            remaining -= written;
+            this.bytesWritten += written;
+        }
+        for (var i = 0; i < numBuffers; i++) {
+            this.freeChunks.add(this.batchChunks[i]);
+            this.batchChunks[i] = null;
+            this.batch[i] = null;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,23 @@
+package cs451.packet;
+
+/**
+ * Visitor of the messages of a {@link Packet} (see {@link Packet#forEachMessage(MessageVisitor)}).
+ * Every message is given as primitive fields and a slice of a buffer, so walking a packet does not allocate.
+ */
+@FunctionalInterface
+public interface MessageVisitor {
+
+    /**
+     * Visit a message.
+     * The buffer belongs to the packet: the slice is only valid during the call and must not be modified.
+     *
+     * @param senderId:  the id of the sender of the packet.
+     * @param messageId: the id of the message.
+     * @param numIds:    the number of consecutive ids of the message, from messageId (1 if it is not a range).
+     * @param data:      the buffer holding the payload.
+     * @param offset:    the offset of the payload in the buffer.
+     * @param length:    the length of the payload.
+     */
+    void visit(int senderId, int messageId, int numIds, byte[] data, int offset, int length);
+
+}
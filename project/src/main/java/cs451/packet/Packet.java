@@ -2,6 +2,7 @@ package cs451.packet;
 
 import cs451.message.Message;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -10,6 +11,20 @@ import java.util.List;
 public interface Packet {
 
     int INT_SIZE = 4; // size in byte of an int
+    /**
+     * Maximum size in byte of a packet: the maximum payload of a UDP datagram over IPv4.
+     * Receive buffers must be this big to hold any packet.
+     */
+    int MAX_PACKET_SIZE = 65507;
+    /**
+     * Wire format version 1: fixed-size ids, counts and lengths.
+     */
+    int VERSION_1 = 1;
+    /**
+     * Wire format version 2: varint ids and counts, message ids as deltas from the first message,
+     * no per-message length if all the payloads have the same length.
+     */
+    int VERSION_2 = 2;
 
     /**
      * Get the id of the packet.
@@ -67,6 +82,38 @@ public interface Packet {
      */
     List<Message> getMessages();
 
+    /**
+     * Get the number of messages of the packet.
+     *
+     * @return The number of messages of the packet.
+     */
+    int getNumMessages();
+
+    /**
+     * Get the id of a message of the packet, without deserializing it.
+     *
+     * @param index: the index of the message in the packet.
+     * @return The id of the message.
+     */
+    int getMessageId(int index);
+
+    /**
+     * Get the number of consecutive ids of a message of the packet:
+     * the message stands for the ids from getMessageId(index) to getMessageId(index) + getNumIds(index) - 1.
+     *
+     * @param index: the index of the message in the packet.
+     * @return The number of ids of the message, 1 if it is not a range.
+     */
+    int getNumIds(int index);
+
+    /**
+     * Walk the messages of the packet in order, without deserializing them.
+     * Higher layers can read just the ids or just the payload slices they need.
+     *
+     * @param visitor: the visitor called for every message.
+     */
+    void forEachMessage(MessageVisitor visitor);
+
     /**
      * Check if the packet can be transmitted.
      *
@@ -82,11 +129,20 @@ public interface Packet {
     void setTransmit(boolean transmit);
 
     /**
-     * Convert the packet to an ack packet.
+     * Get the selective acks of an ack packet.
+     * Bit i (word i / 64, bit i % 64) acknowledges the packet with id getId() + 1 + i.
+     *
+     * @return The bitmap of the packets acknowledged above the cumulative id.
+     */
+    long[] getSelectiveAcks();
+
+    /**
+     * Get the credits advertised by an ack packet: the number of packets above the cumulative id
+     * that the sender of the ack can accept.
      *
-     * @return The ack packet.
+     * @return The credits of the ack.
      */
-    Packet toAck();
+    int getCredits();
 
     /**
      * Get the byte representation of the packet.
@@ -95,6 +151,19 @@ public interface Packet {
      */
     byte[] serialize();
 
+    /**
+     * Write the byte representation of the packet into a buffer, from its current position.
+     *
+     * @param buffer: the buffer to write to, it must have at least getLength() bytes remaining.
+     */
+    void writeTo(ByteBuffer buffer);
+
+    /**
+     * Release the resources held by the packet once it is not needed anymore (e.g. when it is acknowledged).
+     * The packet must not be sent again afterwards.
+     */
+    void release();
+
     @Override
     boolean equals(Object obj);
 
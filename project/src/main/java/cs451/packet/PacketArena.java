@@ -0,0 +1,90 @@
+package cs451.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap arena where the packets are encoded once and kept until they are acknowledged.
+ * It is a single direct {@link ByteBuffer} split in fixed-size slots, each one big enough for a packet.
+ * The slices of the slots are created once, so acquiring and releasing a slot does not allocate.
+ */
+public class PacketArena {
+
+    private final int slotSize;
+    private final ByteBuffer[] slots;
+    private final int[] freeSlots; // stack of the free slots
+    private int numFree;
+
+    /**
+     * Constructor of {@link PacketArena}.
+     *
+     * @param numSlots: the number of slots.
+     * @param slotSize: the size of a slot in bytes (the maximum size of a packet).
+     */
+    public PacketArena(final int numSlots, final int slotSize) {
+        final var memory = ByteBuffer.allocateDirect(numSlots * slotSize);
+        this.slotSize = slotSize;
+        this.slots = new ByteBuffer[numSlots];
+        this.freeSlots = new int[numSlots];
+        for (var i = 0; i < numSlots; i++) {
+            memory.limit((i + 1) * slotSize).position(i * slotSize);
+            this.slots[i] = memory.slice();
+            this.freeSlots[i] = numSlots - 1 - i;
+        }
+        this.numFree = numSlots;
+    }
+
+    /**
+     * Acquire a free slot, waiting until one is released if there are none.
+     *
+     * @return The index of the slot.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized int acquire() throws InterruptedException {
+        while (this.numFree == 0) {
+            this.wait();
+        }
+        return this.freeSlots[--this.numFree];
+    }
+
+    /**
+     * Release a slot.
+     *
+     * @param slot: the index of the slot.
+     */
+    public synchronized void release(final int slot) {
+        this.freeSlots[this.numFree++] = slot;
+        if (this.numFree == 1) {
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Get the buffer of a slot.
+     * Its position and limit are owned by whoever acquired the slot.
+     *
+     * @param slot: the index of the slot.
+     * @return The buffer of the slot.
+     */
+    public ByteBuffer getSlot(final int slot) {
+        return this.slots[slot];
+    }
+
+    /**
+     * Get the number of slots.
+     *
+     * @return The number of slots.
+     */
+    public int getNumSlots() {
+        return this.slots.length;
+    }
+
+    /**
+     * Get the size of a slot.
+     *
+     * @return The size of a slot in bytes.
+     */
+    public int getSlotSize() {
+        return this.slotSize;
+    }
+
+}
@@ -3,11 +3,36 @@ package cs451.packet;
 import cs451.message.Message;
 import cs451.message.MessageUtils;
 
+import java.nio.ByteBuffer;
+
 /**
  * Utility class for {@link Packet}.
  */
 public class PacketUtils {
 
+    /**
+     * Get the wire format version of a serialized packet.
+     * The first byte of a version 1 packet is the most significant byte of a positive id,
+     * so its highest bit is always 0, while it is always 1 for a version 2 packet.
+     *
+     * @param data: the serialized packet.
+     * @return The version of the packet ({@link Packet#VERSION_1} or {@link Packet#VERSION_2}).
+     */
+    public static int getVersion(final byte[] data) {
+        return PacketUtils.getVersion(data, 0);
+    }
+
+    /**
+     * Get the wire format version of a packet serialized at an offset of a buffer.
+     *
+     * @param data:   the buffer.
+     * @param offset: the offset of the packet in the buffer.
+     * @return The version of the packet ({@link Packet#VERSION_1} or {@link Packet#VERSION_2}).
+     */
+    public static int getVersion(final byte[] data, final int offset) {
+        return (data[offset] & PayloadPacketImpl.V2_MARKER) != 0 ? Packet.VERSION_2 : Packet.VERSION_1;
+    }
+
     /**
      * Deserialize a byte array into a {@link Packet}.
      *
@@ -15,16 +40,28 @@ public class PacketUtils {
      * @return The deserialized packet.
      */
     public static Packet deserialize(final byte[] data) {
+        if (PacketUtils.getVersion(data) == Packet.VERSION_2) {
+            return PacketUtils.deserializeV2(data);
+        }
         final int id = (0xFF & data[0]) << 24 | (0xFF & data[1]) << 16  | (0xFF & data[2]) << 8 | (0xFF & data[3]);
         final int receiverId = (data[4] & 0x7F) + 1;
         final boolean isAck = (data[4] & 0x80) != 0;
         final int senderId = data[5] + 1;
         if (isAck) {
-            return new AckPacketImpl(id, senderId, receiverId);
+            final int numWords = 0xFF & data[6];
+            final int credits = (0xFF & data[7]) << 24 | (0xFF & data[8]) << 16  | (0xFF & data[9]) << 8 | (0xFF & data[10]);
+            final long[] selectiveAcks = new long[numWords];
+            int curPos = SelectiveAckPacketImpl.ACK_HEADER_SIZE;
+            for (int i = 0; i < numWords; i++) {
+                for (int j = 0; j < Long.BYTES; j++) {
+                    selectiveAcks[i] = (selectiveAcks[i] << 8) | (0xFF & data[curPos++]);
+                }
+            }
+            return new SelectiveAckPacketImpl(id, senderId, receiverId, selectiveAcks, credits);
         }
         final int numMessages = (0xFF & data[6]) << 24 | (0xFF & data[7]) << 16  | (0xFF & data[8]) << 8 | (0xFF & data[9]);
         int curPos = PayloadPacketImpl.PAYLOAD_HEADER_SIZE;
-        final Packet packet = new PayloadPacketImpl(id);
+        final Packet packet = new PayloadPacketImpl(id, senderId, receiverId, Packet.MAX_PACKET_SIZE, Packet.VERSION_1);
         Message message;
         int messageLength;
         byte[] messageByte;
@@ -40,4 +77,101 @@ public class PacketUtils {
         return packet;
     }
 
+    /**
+     * Get the number of bytes of an unsigned varint.
+     *
+     * @param value: the value, read as an unsigned int.
+     * @return The number of bytes (1 to 5).
+     */
+    public static int varIntSize(final int value) {
+        return (Integer.SIZE - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+    }
+
+    /**
+     * Write an unsigned varint: 7 bits per byte, least significant group first,
+     * the highest bit of a byte is set if more bytes follow.
+     *
+     * @param buffer: the buffer to write to.
+     * @param value:  the value, read as an unsigned int.
+     */
+    public static void putVarInt(final ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Read an unsigned varint.
+     * Its size is {@link #varIntSize(int)} of the value read.
+     *
+     * @param data:   the buffer to read from.
+     * @param offset: the offset of the varint in the buffer.
+     * @return The value.
+     */
+    public static int getVarInt(final byte[] data, int offset) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[offset++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Read an unsigned varint at the position of a buffer, moving the position past it.
+     *
+     * @param buffer: the buffer to read from.
+     * @return The value.
+     */
+    public static int getVarInt(final ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Map a signed int to an unsigned one, so that small negative values get a short varint.
+     *
+     * @param value: the signed value.
+     * @return The zigzag encoding of the value.
+     */
+    public static int zigZag(final int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Inverse of {@link #zigZag(int)}.
+     *
+     * @param value: the zigzag encoded value.
+     * @return The signed value.
+     */
+    public static int unZigZag(final int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /*
+     * Version 2 packets are parsed by a view, then copied into a standalone packet.
+     */
+    private static Packet deserializeV2(final byte[] data) {
+        final var view = new PacketView();
+        view.reset(data, data.length);
+        final Packet packet = new PayloadPacketImpl(view.getId(), view.getSenderId(), view.getReceiverId(),
+                Packet.MAX_PACKET_SIZE, Packet.VERSION_2);
+        for (Message message : view.getMessages()) {
+            packet.addMessage(message);
+        }
+        return packet;
+    }
+
 }
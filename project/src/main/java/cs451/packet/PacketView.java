@@ -0,0 +1,335 @@
+package cs451.packet;
+
+import cs451.message.Message;
+import cs451.message.PayloadMessageImpl;
+import cs451.message.RangeMessageImpl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Flyweight read-only {@link Packet} over a serialized packet.
+ * It reads the header and the messages directly from the buffer it wraps, without copying it,
+ * and it is meant to be reset and reused for every received packet: the buffer belongs to the caller
+ * and the view is only valid until the buffer is reused.
+ * Only {@link #getMessages()} allocates, use {@link #getNumMessages()} and {@link #getMessageId(int)},
+ * or {@link #forEachMessage(MessageVisitor)} for the payloads, to read the messages without allocations.
+ * Both wire format versions are read (see {@link PayloadPacketImpl}), the acks only exist in version 1.
+ * A datagram can carry an ack followed by a payload packet (piggybacked ack): the length of an ack is known
+ * from its header, so the view of the ack tells where the next packet starts.
+ */
+public class PacketView implements Packet {
+
+    private static final int INITIAL_NUM_MESSAGES = 8;
+
+    private byte[] data;
+    private int offset;                  // offset of the packet in the buffer
+    private int length;
+    private int id;
+    private int senderId;
+    private int receiverId;
+    private boolean isAck;
+    private int numMessages;
+    private int[] messageIds;            // id of each message
+    private int[] numIds;                // number of ids of each message (ranges)
+    private int[] payloadOffsets;        // offset in the buffer of the payload of each message
+    private int[] payloadLengths;        // length of the payload of each message
+    private final long[][] selectiveAcks; // reusable selective acks, indexed by number of words
+
+    public PacketView() {
+        this.messageIds = new int[PacketView.INITIAL_NUM_MESSAGES];
+        this.numIds = new int[PacketView.INITIAL_NUM_MESSAGES];
+        this.payloadOffsets = new int[PacketView.INITIAL_NUM_MESSAGES];
+        this.payloadLengths = new int[PacketView.INITIAL_NUM_MESSAGES];
+        this.selectiveAcks = new long[SelectiveAckPacketImpl.MAX_SACK_WORDS + 1][];
+    }
+
+    /**
+     * Wrap a serialized packet.
+     *
+     * @param data:   the buffer containing the packet.
+     * @param length: the length of the packet in the buffer.
+     */
+    public void reset(final byte[] data, final int length) {
+        this.reset(data, 0, length);
+    }
+
+    /**
+     * Wrap a serialized packet starting at an offset of the buffer.
+     * An ack only spans its own bytes (see {@link #getLength()}), a payload packet spans the rest of the buffer.
+     *
+     * @param data:   the buffer containing the packet.
+     * @param offset: the offset of the packet in the buffer.
+     * @param length: the number of bytes from the offset to the end of the data in the buffer.
+     */
+    public void reset(final byte[] data, final int offset, final int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        if (PacketUtils.getVersion(data, offset) == Packet.VERSION_2) {
+            this.resetV2();
+            return;
+        }
+        this.id = this.getInt(offset);
+        this.receiverId = (data[offset + 4] & 0x7F) + 1;
+        this.isAck = (data[offset + 4] & 0x80) != 0;
+        this.senderId = (0xFF & data[offset + 5]) + 1;
+        if (this.isAck) {
+            this.numMessages = 0;
+            this.length = SelectiveAckPacketImpl.ACK_HEADER_SIZE + (0xFF & data[offset + 6]) * Long.BYTES;
+            return;
+        }
+        this.numMessages = this.getInt(offset + 6);
+        this.ensureCapacity();
+        int curPos = offset + PayloadPacketImpl.PAYLOAD_HEADER_SIZE;
+        int messageLength;
+        for (int i = 0; i < this.numMessages; i++) {
+            // [message length] [message id] [payload length] [payload]
+            messageLength = this.getInt(curPos);
+            this.messageIds[i] = this.getInt(curPos + Packet.INT_SIZE);
+            this.numIds[i] = 1;
+            this.payloadLengths[i] = this.getInt(curPos + 2 * Packet.INT_SIZE);
+            this.payloadOffsets[i] = curPos + 3 * Packet.INT_SIZE;
+            curPos += Packet.INT_SIZE + messageLength;
+        }
+    }
+
+    @Override
+    public int getId() {
+        return this.id;
+    }
+
+    @Override
+    public int getSenderId() {
+        return this.senderId;
+    }
+
+    @Override
+    public int getReceiverId() {
+        return this.receiverId;
+    }
+
+    @Override
+    public boolean isAck() {
+        return this.isAck;
+    }
+
+    @Override
+    public void addMessage(Message message) {
+        throw new UnsupportedOperationException("PacketView is read-only.");
+    }
+
+    @Override
+    public boolean canContainMessage(int messageLength) {
+        return false;
+    }
+
+    @Override
+    public int getLength() {
+        return this.length;
+    }
+
+    @Override
+    public List<Message> getMessages() {
+        if (this.isAck) {
+            throw new UnsupportedOperationException("No getMessages for ACK packets.");
+        }
+        final List<Message> messages = new ArrayList<>(this.numMessages);
+        int offset;
+        for (int i = 0; i < this.numMessages; i++) {
+            offset = this.payloadOffsets[i];
+            if (this.numIds[i] > 1) {
+                messages.add(new RangeMessageImpl(this.messageIds[i], this.numIds[i], this.senderId, this.receiverId));
+                continue;
+            }
+            messages.add(new PayloadMessageImpl(Arrays.copyOfRange(this.data, offset, offset + this.payloadLengths[i]),
+                    this.messageIds[i], this.senderId, this.receiverId));
+        }
+        return messages;
+    }
+
+    @Override
+    public int getNumMessages() {
+        if (this.isAck) {
+            throw new UnsupportedOperationException("No getNumMessages for ACK packets.");
+        }
+        return this.numMessages;
+    }
+
+    @Override
+    public int getMessageId(final int index) {
+        return this.messageIds[index];
+    }
+
+    @Override
+    public int getNumIds(final int index) {
+        return this.numIds[index];
+    }
+
+    @Override
+    public void forEachMessage(final MessageVisitor visitor) {
+        if (this.isAck) {
+            throw new UnsupportedOperationException("No forEachMessage for ACK packets.");
+        }
+        for (int i = 0; i < this.numMessages; i++) {
+            visitor.visit(this.senderId, this.messageIds[i], this.numIds[i],
+                    this.data, this.payloadOffsets[i], this.payloadLengths[i]);
+        }
+    }
+
+    /**
+     * Get the selective acks of an ack packet.
+     * The returned array is reused by the view: it is only valid until the view is reset.
+     *
+     * @return The bitmap of the packets acknowledged above the cumulative id.
+     */
+    @Override
+    public long[] getSelectiveAcks() {
+        if (!this.isAck) {
+            throw new UnsupportedOperationException("No getSelectiveAcks for payload packets.");
+        }
+        final int numWords = 0xFF & this.data[this.offset + 6];
+        var words = this.selectiveAcks[numWords];
+        if (words == null) {
+            words = new long[numWords];
+            this.selectiveAcks[numWords] = words;
+        }
+        int curPos = this.offset + SelectiveAckPacketImpl.ACK_HEADER_SIZE;
+        for (int i = 0; i < numWords; i++) {
+            words[i] = 0;
+            for (int j = 0; j < Long.BYTES; j++) {
+                words[i] = (words[i] << 8) | (0xFF & this.data[curPos++]);
+            }
+        }
+        return words;
+    }
+
+    @Override
+    public int getCredits() {
+        if (!this.isAck) {
+            throw new UnsupportedOperationException("No getCredits for payload packets.");
+        }
+        return this.getInt(this.offset + 7);
+    }
+
+    @Override
+    public boolean canTransmit() {
+        return false;
+    }
+
+    @Override
+    public void setTransmit(boolean transmit) {
+        throw new UnsupportedOperationException("PacketView is read-only.");
+    }
+
+    @Override
+    public byte[] serialize() {
+        return Arrays.copyOfRange(this.data, this.offset, this.offset + this.length);
+    }
+
+    @Override
+    public void writeTo(final ByteBuffer buffer) {
+        buffer.put(this.data, this.offset, this.length);
+    }
+
+    @Override
+    public void release() {
+        // The buffer belongs to the caller.
+    }
+
+    /*
+     * Parse a version 2 payload packet.
+     */
+    private void resetV2() {
+        final var fixedSize = (this.data[this.offset] & PayloadPacketImpl.V2_FIXED_SIZE) != 0;
+        final var hasRanges = (this.data[this.offset] & PayloadPacketImpl.V2_RANGES) != 0;
+        this.isAck = false;
+        this.receiverId = (0xFF & this.data[this.offset + 1]) + 1;
+        this.senderId = (0xFF & this.data[this.offset + 2]) + 1;
+        int curPos = this.offset + PayloadPacketImpl.V2_HEADER_SIZE;
+        this.id = PacketUtils.getVarInt(this.data, curPos);
+        curPos += PacketUtils.varIntSize(this.id);
+        this.numMessages = PacketUtils.getVarInt(this.data, curPos);
+        curPos += PacketUtils.varIntSize(this.numMessages);
+        if (this.numMessages == 0) {
+            return;
+        }
+        this.ensureCapacity();
+        final var firstMessageId = PacketUtils.getVarInt(this.data, curPos);
+        curPos += PacketUtils.varIntSize(firstMessageId);
+        var payloadLength = 0;
+        if (fixedSize) {
+            payloadLength = PacketUtils.getVarInt(this.data, curPos);
+            curPos += PacketUtils.varIntSize(payloadLength);
+        }
+        int delta;
+        for (int i = 0; i < this.numMessages; i++) {
+            if (i == 0) {
+                this.messageIds[i] = firstMessageId;
+            } else {
+                delta = PacketUtils.getVarInt(this.data, curPos);
+                curPos += PacketUtils.varIntSize(delta);
+                this.messageIds[i] = firstMessageId + PacketUtils.unZigZag(delta);
+            }
+            if (hasRanges) {
+                this.numIds[i] = PacketUtils.getVarInt(this.data, curPos) + 1;
+                curPos += PacketUtils.varIntSize(this.numIds[i] - 1);
+            } else {
+                this.numIds[i] = 1;
+            }
+            if (!fixedSize) {
+                payloadLength = PacketUtils.getVarInt(this.data, curPos);
+                curPos += PacketUtils.varIntSize(payloadLength);
+            }
+            this.payloadOffsets[i] = curPos;
+            this.payloadLengths[i] = payloadLength;
+            curPos += payloadLength;
+        }
+    }
+
+    /*
+     * Grow the message arrays to hold numMessages messages.
+     */
+    private void ensureCapacity() {
+        if (this.messageIds.length < this.numMessages) {
+            final var capacity = Math.max(this.numMessages, this.messageIds.length * 2);
+            this.messageIds = new int[capacity];
+            this.numIds = new int[capacity];
+            this.payloadOffsets = new int[capacity];
+            this.payloadLengths = new int[capacity];
+        }
+    }
+
+    private int getInt(final int offset) {
+        return (0xFF & this.data[offset]) << 24 | (0xFF & this.data[offset + 1]) << 16
+                | (0xFF & this.data[offset + 2]) << 8 | (0xFF & this.data[offset + 3]);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (this.getClass() != obj.getClass()) {
+            return false;
+        }
+        return this.getId() == ((Packet)obj).getId()
+                && this.getSenderId() == ((Packet)obj).getSenderId()
+                && this.getReceiverId() == ((Packet)obj).getReceiverId()
+                && this.isAck() == ((Packet)obj).isAck();
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(this.id)
+                + Integer.hashCode(this.senderId)
+                + Integer.hashCode(this.receiverId)
+                + Boolean.hashCode(this.isAck());
+    }
+
+}
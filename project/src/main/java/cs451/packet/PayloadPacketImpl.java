@@ -1,19 +1,37 @@
 package cs451.packet;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import cs451.message.Message;
-import cs451.message.MessageUtils;
+import cs451.message.RangeMessageImpl;
 
 /**
  * Implementation of a payload {@link Packet}.
+ * Once full, a packet can be encoded into a slot of a {@link PacketArena}: from then on it is sent
+ * (and retransmitted) by copying the encoded bytes, and it does not keep its messages on the heap anymore.
+ * The slot goes back to the arena when the packet is released and the fair-loss link is done with it.
+ * The packet is written with the wire format version chosen at construction:
+ * - version 1: [id (4 bytes)] [receiverId (1 byte)] [senderId (1 byte)] [number of messages (4 bytes)]
+ *   followed by [message length (4 bytes)] [message id (4 bytes)] [payload length (4 bytes)] [payload]
+ *   for every message;
+ * - version 2: [flags (1 byte)] [receiverId (1 byte)] [senderId (1 byte)] [id (varint)]
+ *   [number of messages (varint)] [id of the first message (varint)] [payload length (varint, fixed-size only)]
+ *   followed by [id - first id (zigzag varint, not for the first message)] [number of ids - 1 (varint,
+ *   ranges only)] [payload length (varint, not in fixed-size mode)] [payload] for every message.
+ *   The fixed-size mode is used when all the payloads have the same length.
+ *   In version 2, consecutive messages with an empty payload are merged into a single range of ids
+ *   (see {@link RangeMessageImpl}): a packet can carry any number of them. A message extends any range
+ *   of the packet ending right before its id, so interleaved sequences of ids (e.g. the messages of different
+ *   broadcasters) still make one range each.
  */
 public class PayloadPacketImpl implements Packet {
 
     /**
-     * Size in byte of the header of a payload packet.
+     * Size in byte of the header of a version 1 payload packet.
      * - 4 bytes for the id of the packet.
      * - 1 byte for the receiverId + isAck.
      * - 1 byte for the senderId.
@@ -21,28 +39,72 @@ public class PayloadPacketImpl implements Packet {
      */
     public static final int PAYLOAD_HEADER_SIZE = 10;
     /**
-     * Maximum size of a packet in byte.
-     * Header + payload.
-     * Every packet, in the current implementation, can contain at most 8 messages (8 bytes each).
+     * Size in byte of the fixed part of the header of a version 2 payload packet (flags, receiverId, senderId).
      */
-    public static final int MAX_PAYLOAD_SIZE = 106;
-    private static final int MAX_NUM_MESSAGES = 8; // maximum number of messages in a packet
+    public static final int V2_HEADER_SIZE = 3;
+    /**
+     * Flag set in the first byte of every version 2 packet.
+     */
+    public static final int V2_MARKER = 0x80;
+    /**
+     * Flag of the version 2 packets where all the payloads have the same length, written once.
+     */
+    public static final int V2_FIXED_SIZE = 0x01;
+    /**
+     * Flag of the version 2 packets where some messages are ranges of ids.
+     */
+    public static final int V2_RANGES = 0x02;
+
+    private static final int MAX_VARINT_SIZE = 5;
+    private static final int INITIAL_NUM_MESSAGES = 8;
+    private static final int OPEN_RANGES_SIZE = 256; // number of slots of the open ranges (power of 2)
 
-    private int length;
+    // Bits of the state of the packet.
+    private static final int TRANSMITTED = 1; // sent by the fair-loss link and not queued again.
+    private static final int RELEASED = 2;    // released: the slot is freed as soon as it is not queued.
+
+    private int length;      // length of the messages in byte (header excluded)
+    private int maxLength;   // maximum size of the packet in byte (header + payload)
+    private int version;
     private int senderId;
     private int receiverId;
+    private int numMessages;
+    private int firstMessageId;
+    private int payloadLength;         // length of every payload, -1 if they differ (version 2)
+    private int payloadLengthsSize;    // bytes spent on the payload lengths (version 2)
+    private int rangesSize;            // bytes spent on the number of ids of the messages (version 2)
+    private boolean hasRanges;         // true if a message has more than one id (version 2)
     private final int id;
-    private final AtomicBoolean canTransmit;
-    private final List<byte[]> messagesInBytes;
+    private final AtomicInteger state;
+    private List<Message> messages;    // null once the packet is encoded
+    private int[] messageNumIds;       // number of ids of each message, null once the packet is encoded
+    // Index of the message whose range ends right before an id, in the slot of the id (version 2):
+    // a slot only keeps the last range hashed to it. Null until a message with an empty payload is added.
+    private int[] openRanges;
+    private PacketArena arena;         // arena of the encoded packet, null if not encoded
+    private int slot;                  // slot of the encoded packet in the arena
+    private ByteBuffer encoded;        // encoded packet, null if not encoded
 
     public PayloadPacketImpl(final int id) {
         this.id = id;
+        this.maxLength = Packet.MAX_PACKET_SIZE;
+        this.version = Packet.VERSION_2;
         // The sender id and the receiver id are not set until the first message is added.
         this.senderId = -1;
         this.receiverId = -1;
-        this.length = PayloadPacketImpl.PAYLOAD_HEADER_SIZE;
-        this.canTransmit = new AtomicBoolean(false);
-        this.messagesInBytes = new ArrayList<>();
+        this.length = 0;
+        this.numMessages = 0;
+        this.payloadLength = -1;
+        this.payloadLengthsSize = 0;
+        this.rangesSize = 0;
+        this.hasRanges = false;
+        this.state = new AtomicInteger(0);
+        this.messages = new ArrayList<>();
+        this.messageNumIds = new int[PayloadPacketImpl.INITIAL_NUM_MESSAGES];
+        this.openRanges = null;
+        this.arena = null;
+        this.slot = -1;
+        this.encoded = null;
     }
 
     /**
@@ -66,6 +128,38 @@ public class PayloadPacketImpl implements Packet {
         this.receiverId = receiverId;
     }
 
+    /**
+     * Constructor for {@link PayloadPacketImpl}.
+     *
+     * @param senderId:   the id of the sender.
+     * @param receiverId: the id of the receiver.
+     * @param maxLength:  the maximum size of the packet in byte (header + payload).
+     */
+    public PayloadPacketImpl(final int id, final int senderId, final int receiverId, final int maxLength) {
+        this(id, senderId, receiverId);
+        if (maxLength < PayloadPacketImpl.PAYLOAD_HEADER_SIZE || maxLength > Packet.MAX_PACKET_SIZE) {
+            throw new IllegalArgumentException("Invalid packet size: " + maxLength);
+        }
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Constructor for {@link PayloadPacketImpl}.
+     *
+     * @param senderId:   the id of the sender.
+     * @param receiverId: the id of the receiver.
+     * @param maxLength:  the maximum size of the packet in byte (header + payload).
+     * @param version:    the wire format version ({@link Packet#VERSION_1} or {@link Packet#VERSION_2}).
+     */
+    public PayloadPacketImpl(final int id, final int senderId, final int receiverId,
+        final int maxLength, final int version) {
+        this(id, senderId, receiverId, maxLength);
+        if (version != Packet.VERSION_1 && version != Packet.VERSION_2) {
+            throw new IllegalArgumentException("Invalid wire format version: " + version);
+        }
+        this.version = version;
+    }
+
     @Override
     public int getId() {
         return this.id;
@@ -96,6 +190,9 @@ public class PayloadPacketImpl implements Packet {
 
     @Override
     public void addMessage(final Message message) {
+        if (this.encoded != null) {
+            throw new UnsupportedOperationException("The packet is already encoded.");
+        }
         if (this.receiverId == -1) {
             this.receiverId = message.getReceiverId();
         }
@@ -103,79 +200,397 @@ public class PayloadPacketImpl implements Packet {
             this.senderId = message.getSenderId();
         }
 
-        // 4 bytes for the length of the message.
-        this.length += Packet.INT_SIZE + message.getLength();
-        this.messagesInBytes.add(message.serialize());
+        final var messagePayloadLength = message.getPayload().length;
+        final var numIds = message.getNumIds();
+        if (this.version == Packet.VERSION_1) {
+            if (numIds != 1) {
+                throw new UnsupportedOperationException("Ranges only exist in the version 2 wire format.");
+            }
+            // 4 bytes for the length of the message.
+            this.length += Packet.INT_SIZE + message.getLength();
+        } else {
+            final var range = this.findRange(message);
+            if (range != -1) {
+                // Grow the range instead of adding a message.
+                this.rangesSize += this.rangeGrowth(range, numIds);
+                this.messageNumIds[range] += numIds;
+                this.hasRanges = true;
+                this.openRange(range);
+                return;
+            }
+            this.rangesSize += PacketUtils.varIntSize(numIds - 1);
+            this.hasRanges |= numIds > 1;
+            if (this.numMessages == 0) {
+                this.firstMessageId = message.getId();
+                this.payloadLength = messagePayloadLength;
+                this.length += PacketUtils.varIntSize(this.firstMessageId);
+            } else {
+                this.length += PacketUtils.varIntSize(PacketUtils.zigZag(message.getId() - this.firstMessageId));
+                if (this.payloadLength != messagePayloadLength) {
+                    this.payloadLength = -1;
+                }
+            }
+            this.payloadLengthsSize += PacketUtils.varIntSize(messagePayloadLength);
+            this.length += PacketUtils.varIntSize(messagePayloadLength) + messagePayloadLength;
+        }
+        if (this.numMessages == this.messageNumIds.length) {
+            this.messageNumIds = Arrays.copyOf(this.messageNumIds, this.numMessages * 2);
+        }
+        this.messages.add(message);
+        this.messageNumIds[this.numMessages] = numIds;
+        this.numMessages++;
+        if (this.version == Packet.VERSION_2 && messagePayloadLength == 0) {
+            this.openRange(this.numMessages - 1);
+        }
     }
 
+    /**
+     * Check if a message fits in the packet.
+     * Unlike {@link #canContainMessage(int)}, it knows if the message extends a range of the packet,
+     * which takes (almost) no room.
+     *
+     * @param message: the message.
+     * @return True if the message can be added, false otherwise.
+     */
+    public boolean canContainMessage(final Message message) {
+        if (this.encoded != null) {
+            return false;
+        }
+        final var range = this.findRange(message);
+        if (range == -1) {
+            return this.canContainMessage(message.getLength());
+        }
+        // The number of ids of every message is written as soon as one of them is a range.
+        return this.getLength() + this.rangeGrowth(range, message.getNumIds())
+                + (this.hasRanges ? 0 : this.rangesSize) <= this.maxLength;
+    }
+
+    /*
+     * In version 2 the id of the message is not known yet, so the longest delta is assumed,
+     * as well as the message turning the packet into a packet with ranges.
+     */
     @Override
     public boolean canContainMessage(final int messageLength) {
-        return (this.length + Packet.INT_SIZE + messageLength <= PayloadPacketImpl.MAX_PAYLOAD_SIZE)
-            && (this.messagesInBytes.size() + 1 <= PayloadPacketImpl.MAX_NUM_MESSAGES);
+        if (this.encoded != null) {
+            return false;
+        }
+        if (this.version == Packet.VERSION_1) {
+            return this.getLength() + Packet.INT_SIZE + messageLength <= this.maxLength;
+        }
+        // The message length includes its id and its payload length (4 bytes each).
+        final var messagePayloadLength = messageLength - 2 * Packet.INT_SIZE;
+        var packetLength = PayloadPacketImpl.V2_HEADER_SIZE + PacketUtils.varIntSize(this.id)
+                + PacketUtils.varIntSize(this.numMessages + 1) + this.length
+                + PayloadPacketImpl.MAX_VARINT_SIZE + messagePayloadLength
+                + this.rangesSize + PayloadPacketImpl.MAX_VARINT_SIZE;
+        if (this.numMessages == 0 || this.payloadLength == messagePayloadLength) {
+            // Still fixed-size: the payload length is written once.
+            packetLength += PacketUtils.varIntSize(messagePayloadLength) - this.payloadLengthsSize;
+        } else {
+            packetLength += PacketUtils.varIntSize(messagePayloadLength);
+        }
+        return packetLength <= this.maxLength;
     }
 
     public int getLength() {
-        return this.length;
+        if (this.version == Packet.VERSION_1) {
+            return PayloadPacketImpl.PAYLOAD_HEADER_SIZE + this.length;
+        }
+        var packetLength = PayloadPacketImpl.V2_HEADER_SIZE + PacketUtils.varIntSize(this.id)
+                + PacketUtils.varIntSize(this.numMessages) + this.length;
+        if (this.isFixedSize()) {
+            packetLength += PacketUtils.varIntSize(this.payloadLength) - this.payloadLengthsSize;
+        }
+        if (this.hasRanges) {
+            packetLength += this.rangesSize;
+        }
+        return packetLength;
     }
 
+    /**
+     * Get the wire format version of the packet.
+     *
+     * @return The version ({@link Packet#VERSION_1} or {@link Packet#VERSION_2}).
+     */
+    public int getVersion() {
+        return this.version;
+    }
 
     @Override
     public List<Message> getMessages() {
-        // Need to convert the messages in bytes to messages.
-        List<Message> convertedMessages = new ArrayList<>();
-        if (!this.messagesInBytes.isEmpty()) {
-            for (byte[] messageInBytes : this.messagesInBytes) {
-                convertedMessages.add(MessageUtils.deserialize(messageInBytes, senderId, receiverId));
-            }
+        if (this.encoded != null) {
+            return this.decode().getMessages();
+        }
+        final List<Message> convertedMessages = new ArrayList<>(this.numMessages);
+        Message m;
+        for (var i = 0; i < this.numMessages; i++) {
+            m = this.messages.get(i);
+            convertedMessages.add(this.messageNumIds[i] == m.getNumIds()
+                    ? m
+                    : new RangeMessageImpl(m.getId(), this.messageNumIds[i], this.senderId, this.receiverId));
         }
         return convertedMessages;
     }
 
+    @Override
+    public int getNumMessages() {
+        return this.numMessages;
+    }
+
+    @Override
+    public int getMessageId(final int index) {
+        if (this.encoded != null) {
+            return this.decode().getMessageId(index);
+        }
+        return this.messages.get(index).getId();
+    }
+
+    @Override
+    public int getNumIds(final int index) {
+        if (this.encoded != null) {
+            return this.decode().getNumIds(index);
+        }
+        return this.messageNumIds[index];
+    }
+
+    /**
+     * Walk the messages of the packet in order.
+     * An encoded packet no longer keeps its messages: it is decoded into a copy first.
+     *
+     * @param visitor: the visitor called for every message.
+     */
+    @Override
+    public void forEachMessage(final MessageVisitor visitor) {
+        if (this.encoded != null) {
+            this.decode().forEachMessage(visitor);
+            return;
+        }
+        byte[] payload;
+        for (var i = 0; i < this.numMessages; i++) {
+            payload = this.messages.get(i).getPayload();
+            visitor.visit(this.senderId, this.messages.get(i).getId(), this.messageNumIds[i], payload, 0, payload.length);
+        }
+    }
+
+    @Override
+    public long[] getSelectiveAcks() {
+        throw new UnsupportedOperationException("No getSelectiveAcks for payload packets.");
+    }
+
+    @Override
+    public int getCredits() {
+        throw new UnsupportedOperationException("No getCredits for payload packets.");
+    }
+
     @Override
     public boolean canTransmit() {
-        return this.canTransmit.get();
+        final var s = this.state.get();
+        return (s & PayloadPacketImpl.TRANSMITTED) != 0 && (s & PayloadPacketImpl.RELEASED) == 0;
     }
 
+    /*
+     * Setting the packet as transmitted means that the fair-loss link is done with it:
+     * if the packet was released in the meantime, its slot is freed.
+     */
     @Override
     public void setTransmit(boolean transmit) {
-        this.canTransmit.set(transmit);
+        int s;
+        while (true) {
+            s = this.state.get();
+            if ((s & PayloadPacketImpl.RELEASED) != 0) {
+                if (!transmit || (s & PayloadPacketImpl.TRANSMITTED) != 0) {
+                    return;
+                }
+                if (this.state.compareAndSet(s, s | PayloadPacketImpl.TRANSMITTED)) {
+                    this.freeSlot();
+                    return;
+                }
+            } else if (this.state.compareAndSet(s, transmit
+                    ? s | PayloadPacketImpl.TRANSMITTED
+                    : s & ~PayloadPacketImpl.TRANSMITTED)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encode the packet into a slot of an arena.
+     * Its messages are not kept on the heap anymore and no message can be added.
+     *
+     * @param arena: the arena, its slots must be at least as big as the maximum size of the packet.
+     * @throws InterruptedException if interrupted while waiting for a free slot.
+     */
+    public void encode(final PacketArena arena) throws InterruptedException {
+        if (this.maxLength > arena.getSlotSize()) {
+            throw new IllegalArgumentException("The packet does not fit the slots of the arena.");
+        }
+        this.slot = arena.acquire();
+        final var buffer = arena.getSlot(this.slot);
+        buffer.clear();
+        this.write(buffer);
+        buffer.flip();
+        this.arena = arena;
+        this.encoded = buffer;
+        this.messages = null;
+        this.messageNumIds = null;
+        this.openRanges = null;
     }
 
+    /*
+     * The encoded bytes are copied by moving the position of the slot buffer:
+     * only the thread sending the packet writes it.
+     */
     @Override
-    public Packet toAck() {
-        return new AckPacketImpl(this.id, this.receiverId, this.senderId);
+    public void writeTo(final ByteBuffer buffer) {
+        if (this.encoded != null) {
+            this.encoded.limit(this.getLength()).position(0);
+            buffer.put(this.encoded);
+        } else {
+            this.write(buffer);
+        }
+    }
+
+    /*
+     * The slot of an encoded packet is freed now if the packet is not queued for transmission,
+     * otherwise when the fair-loss link sets it as transmitted.
+     */
+    @Override
+    public void release() {
+        int s;
+        while (true) {
+            s = this.state.get();
+            if ((s & PayloadPacketImpl.RELEASED) != 0) {
+                return;
+            }
+            if (this.state.compareAndSet(s, s | PayloadPacketImpl.RELEASED)) {
+                if ((s & PayloadPacketImpl.TRANSMITTED) != 0) {
+                    this.freeSlot();
+                }
+                return;
+            }
+        }
     }
 
     @Override
     public byte[] serialize() {
-        final byte[] buffer = new byte[this.length];
-        buffer[0] = (byte)((this.id >> 24) & 0xFF);
-        buffer[1] = (byte)((this.id >> 16) & 0xFF);
-        buffer[2] = (byte)((this.id >> 8) & 0xFF);
-        buffer[3] = (byte)(this.id & 0xFF);
-        buffer[4] = (byte)((this.receiverId - 1) & 0xFF);
-        buffer[4] |= (byte)(0);
-        buffer[5] = (byte)((this.senderId - 1) & 0xFF);
-        final var numMessages = this.messagesInBytes.size();
-        buffer[6] = (byte)((numMessages >> 24) & 0xFF);
-        buffer[7] = (byte)((numMessages >> 16) & 0xFF);
-        buffer[8] = (byte)((numMessages >> 8) & 0xFF);
-        buffer[9] = (byte)(numMessages & 0xFF);
-        var currentLength = PayloadPacketImpl.PAYLOAD_HEADER_SIZE;
-        byte[] m;
-        int messageLength;
-        for (int i = 0; i < numMessages; i++) {
-            m = this.messagesInBytes.get(i);
-            messageLength = m.length;
-            buffer[currentLength] = (byte)((messageLength >> 24) & 0xFF);
-            buffer[currentLength + 1] = (byte)((messageLength >> 16) & 0xFF);
-            buffer[currentLength + 2] = (byte)((messageLength >> 8) & 0xFF);
-            buffer[currentLength + 3] = (byte)(messageLength & 0xFF);
-            currentLength += Packet.INT_SIZE;
-            System.arraycopy(m, 0, buffer, currentLength, messageLength);
-            currentLength += messageLength;
-        }
-        return buffer;
+        final var buffer = ByteBuffer.allocate(this.getLength());
+        if (this.encoded != null) {
+            buffer.put(this.encoded.duplicate().limit(this.getLength()).position(0));
+        } else {
+            this.write(buffer);
+        }
+        return buffer.array();
+    }
+
+    /*
+     * True if all the payloads have the same length, written once (version 2).
+     */
+    private boolean isFixedSize() {
+        return this.numMessages > 0 && this.payloadLength != -1;
+    }
+
+    /*
+     * Find the message of the packet that the message continues: both have an empty payload
+     * and the range of the found message ends right before the id of the message (version 2).
+     * Return its index, -1 if there is none.
+     */
+    private int findRange(final Message message) {
+        if (this.openRanges == null || message.getPayload().length != 0) {
+            return -1;
+        }
+        final var index = this.openRanges[PayloadPacketImpl.openRangeSlot(message.getId())];
+        if (index == -1) {
+            return -1;
+        }
+        final var m = this.messages.get(index);
+        return m.getPayload().length == 0 && message.getId() == m.getId() + this.messageNumIds[index] ? index : -1;
+    }
+
+    /*
+     * Register the end of the range of a message with an empty payload, so the next id can extend it.
+     */
+    private void openRange(final int index) {
+        if (this.openRanges == null) {
+            this.openRanges = new int[PayloadPacketImpl.OPEN_RANGES_SIZE];
+            Arrays.fill(this.openRanges, -1);
+        }
+        final var end = this.messages.get(index).getId() + this.messageNumIds[index];
+        this.openRanges[PayloadPacketImpl.openRangeSlot(end)] = index;
+    }
+
+    /*
+     * Bytes added to the number of ids of a message when its range grows.
+     */
+    private int rangeGrowth(final int index, final int numIds) {
+        return PacketUtils.varIntSize(this.messageNumIds[index] + numIds - 1)
+                - PacketUtils.varIntSize(this.messageNumIds[index] - 1);
+    }
+
+    /*
+     * Fibonacci hashing: ids differing only in their high bits get different slots.
+     */
+    private static int openRangeSlot(final int id) {
+        return (id * 0x9E3779B9) >>> (Integer.SIZE - Integer.numberOfTrailingZeros(PayloadPacketImpl.OPEN_RANGES_SIZE));
+    }
+
+    /*
+     * Write the header and the messages of a packet that is not encoded yet.
+     */
+    private void write(final ByteBuffer buffer) {
+        if (this.version == Packet.VERSION_1) {
+            buffer.putInt(this.id);
+            buffer.put((byte)((this.receiverId - 1) & 0xFF));
+            buffer.put((byte)((this.senderId - 1) & 0xFF));
+            buffer.putInt(this.numMessages);
+            for (Message m : this.messages) {
+                buffer.putInt(m.getLength());
+                buffer.put(m.serialize());
+            }
+            return;
+        }
+        final var fixedSize = this.isFixedSize();
+        buffer.put((byte)(PayloadPacketImpl.V2_MARKER
+                | (fixedSize ? PayloadPacketImpl.V2_FIXED_SIZE : 0)
+                | (this.hasRanges ? PayloadPacketImpl.V2_RANGES : 0)));
+        buffer.put((byte)((this.receiverId - 1) & 0xFF));
+        buffer.put((byte)((this.senderId - 1) & 0xFF));
+        PacketUtils.putVarInt(buffer, this.id);
+        PacketUtils.putVarInt(buffer, this.numMessages);
+        if (this.numMessages == 0) {
+            return;
+        }
+        PacketUtils.putVarInt(buffer, this.firstMessageId);
+        if (fixedSize) {
+            PacketUtils.putVarInt(buffer, this.payloadLength);
+        }
+        for (var i = 0; i < this.numMessages; i++) {
+            final var m = this.messages.get(i);
+            if (i > 0) {
+                PacketUtils.putVarInt(buffer, PacketUtils.zigZag(m.getId() - this.firstMessageId));
+            }
+            if (this.hasRanges) {
+                PacketUtils.putVarInt(buffer, this.messageNumIds[i] - 1);
+            }
+            if (!fixedSize) {
+                PacketUtils.putVarInt(buffer, m.getPayload().length);
+            }
+            buffer.put(m.getPayload());
+        }
+    }
+
+    /*
+     * Wrap a copy of the encoded packet in a view to read its messages.
+     */
+    private PacketView decode() {
+        final var view = new PacketView();
+        view.reset(this.serialize(), this.getLength());
+        return view;
+    }
+
+    private void freeSlot() {
+        if (this.arena != null) {
+            this.arena.release(this.slot);
+        }
     }
 
     @Override
@@ -0,0 +1,169 @@
+package cs451.packet;
+
+import cs451.message.Message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A payload {@link Packet} carrying an ack for its receiver in the same datagram.
+ * It is serialized as the ack followed by the payload packet: the length of the ack is known from its header,
+ * so the receiver can split them (see {@link PacketView}).
+ * Everything but the serialization is the one of the payload packet.
+ */
+public class PiggybackPacketImpl implements Packet {
+
+    private final Packet ack;
+    private final Packet payload;
+
+    /**
+     * Constructor of {@link PiggybackPacketImpl}.
+     *
+     * @param ack:     the ack, sent by the sender of the payload packet to its receiver.
+     * @param payload: the payload packet.
+     */
+    public PiggybackPacketImpl(final Packet ack, final Packet payload) {
+        if (!ack.isAck() || payload.isAck()) {
+            throw new IllegalArgumentException("Only an ack can be piggybacked on a payload packet.");
+        }
+        this.ack = ack;
+        this.payload = payload;
+    }
+
+    /**
+     * Get the ack carried by the packet.
+     *
+     * @return The ack.
+     */
+    public Packet getAck() {
+        return this.ack;
+    }
+
+    /**
+     * Get the payload packet carrying the ack.
+     *
+     * @return The payload packet.
+     */
+    public Packet getPayload() {
+        return this.payload;
+    }
+
+    @Override
+    public int getId() {
+        return this.payload.getId();
+    }
+
+    @Override
+    public int getSenderId() {
+        return this.payload.getSenderId();
+    }
+
+    @Override
+    public int getReceiverId() {
+        return this.payload.getReceiverId();
+    }
+
+    @Override
+    public boolean isAck() {
+        return false;
+    }
+
+    @Override
+    public void addMessage(final Message message) {
+        throw new UnsupportedOperationException("No addMessage for piggyback packets.");
+    }
+
+    @Override
+    public boolean canContainMessage(final int messageLength) {
+        return false;
+    }
+
+    @Override
+    public int getLength() {
+        return this.ack.getLength() + this.payload.getLength();
+    }
+
+    @Override
+    public List<Message> getMessages() {
+        return this.payload.getMessages();
+    }
+
+    @Override
+    public int getNumMessages() {
+        return this.payload.getNumMessages();
+    }
+
+    @Override
+    public int getMessageId(final int index) {
+        return this.payload.getMessageId(index);
+    }
+
+    @Override
+    public int getNumIds(final int index) {
+        return this.payload.getNumIds(index);
+    }
+
+    @Override
+    public void forEachMessage(final MessageVisitor visitor) {
+        this.payload.forEachMessage(visitor);
+    }
+
+    @Override
+    public boolean canTransmit() {
+        return this.payload.canTransmit();
+    }
+
+    @Override
+    public void setTransmit(final boolean transmit) {
+        this.payload.setTransmit(transmit);
+    }
+
+    @Override
+    public long[] getSelectiveAcks() {
+        throw new UnsupportedOperationException("No getSelectiveAcks for payload packets.");
+    }
+
+    @Override
+    public int getCredits() {
+        throw new UnsupportedOperationException("No getCredits for payload packets.");
+    }
+
+    @Override
+    public byte[] serialize() {
+        final var buffer = ByteBuffer.allocate(this.getLength());
+        this.writeTo(buffer);
+        return buffer.array();
+    }
+
+    @Override
+    public void writeTo(final ByteBuffer buffer) {
+        this.ack.writeTo(buffer);
+        this.payload.writeTo(buffer);
+    }
+
+    @Override
+    public void release() {
+        this.payload.release();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (this.getClass() != obj.getClass()) {
+            return false;
+        }
+        return this.ack.equals(((PiggybackPacketImpl) obj).ack)
+                && this.payload.equals(((PiggybackPacketImpl) obj).payload);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.ack.hashCode() + this.payload.hashCode();
+    }
+
+}
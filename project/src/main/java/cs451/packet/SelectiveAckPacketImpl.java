@@ -0,0 +1,215 @@
+package cs451.packet;
+
+import cs451.message.Message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Implementation of an ack {@link Packet} with cumulative and selective acknowledgements.
+ * The id of the packet is the cumulative watermark: every packet with an id less than or equal
+ * to it has been received. The selective acks are a bitmap of the packets received out of order
+ * above the watermark: bit i (word i / 64, bit i % 64) acknowledges the packet with id watermark + 1 + i.
+ * The credits are the flow control of the link: the receiver of the payload packets accepts the packets
+ * with an id up to watermark + credits, the sender must not send beyond it.
+ */
+public class SelectiveAckPacketImpl implements Packet {
+
+    /**
+     * Size in byte of the header of an ack packet.
+     * - 4 bytes for the cumulative id.
+     * - 1 byte for the receiverId + isAck.
+     * - 1 byte for the senderId.
+     * - 1 byte for the number of selective ack words.
+     * - 4 bytes for the credits.
+     */
+    public static final int ACK_HEADER_SIZE = 11;
+    /**
+     * Maximum number of selective ack words (8 bytes each) in an ack packet.
+     * 64 words acknowledge 4096 packets above the cumulative id and keep the ack below the Ethernet MTU.
+     */
+    public static final int MAX_SACK_WORDS = 64;
+
+    private final int id;
+    private final int senderId;
+    private final int receiverId;
+    private final long[] selectiveAcks;
+    private final int credits;
+    private final AtomicBoolean canTransmit;
+
+    /**
+     * Constructor for {@link SelectiveAckPacketImpl}.
+     *
+     * @param id:            the cumulative id.
+     * @param senderId:      the id of the sender (the one that received the payload packets).
+     * @param receiverId:    the id of the receiver (the one that sent the payload packets).
+     * @param selectiveAcks: the bitmap of the packets received above the cumulative id.
+     * @param credits:       the number of packets above the cumulative id that can be received.
+     */
+    public SelectiveAckPacketImpl(final int id, final int senderId, final int receiverId,
+        final long[] selectiveAcks, final int credits) {
+        if (selectiveAcks.length > SelectiveAckPacketImpl.MAX_SACK_WORDS) {
+            throw new IllegalArgumentException("Too many selective ack words: " + selectiveAcks.length);
+        }
+        this.id = id;
+        this.senderId = senderId;
+        this.receiverId = receiverId;
+        this.selectiveAcks = selectiveAcks;
+        this.credits = credits;
+        this.canTransmit = new AtomicBoolean(false);
+    }
+
+    @Override
+    public int getId() {
+        return this.id;
+    }
+
+    @Override
+    public int getSenderId() {
+        return this.senderId;
+    }
+
+    @Override
+    public int getReceiverId() {
+        return this.receiverId;
+    }
+
+    @Override
+    public boolean isAck() {
+        return true;
+    }
+
+    @Override
+    public int getLength() {
+        return SelectiveAckPacketImpl.ACK_HEADER_SIZE + this.selectiveAcks.length * Long.BYTES;
+    }
+
+    @Override
+    public void addMessage(Message message) {
+        throw new UnsupportedOperationException("No addMessage for ACK packets.");
+    }
+
+    @Override
+    public boolean canContainMessage(int messageLength) {
+        throw new UnsupportedOperationException("No canContainMessage for ACK packets.");
+    }
+
+    @Override
+    public List<Message> getMessages() {
+        throw new UnsupportedOperationException("No getMessages for ACK packets.");
+    }
+
+    @Override
+    public int getNumMessages() {
+        throw new UnsupportedOperationException("No getNumMessages for ACK packets.");
+    }
+
+    @Override
+    public int getMessageId(int index) {
+        throw new UnsupportedOperationException("No getMessageId for ACK packets.");
+    }
+
+    @Override
+    public int getNumIds(int index) {
+        throw new UnsupportedOperationException("No getNumIds for ACK packets.");
+    }
+
+    @Override
+    public void forEachMessage(MessageVisitor visitor) {
+        throw new UnsupportedOperationException("No forEachMessage for ACK packets.");
+    }
+
+    @Override
+    public long[] getSelectiveAcks() {
+        return this.selectiveAcks;
+    }
+
+    @Override
+    public int getCredits() {
+        return this.credits;
+    }
+
+    @Override
+    public boolean canTransmit() {
+        return this.canTransmit.get();
+    }
+
+    @Override
+    public void setTransmit(boolean transmit) {
+        this.canTransmit.set(transmit);
+    }
+
+    @Override
+    public byte[] serialize() {
+        final byte[] buffer = new byte[this.getLength()];
+        // 4 bytes for the cumulative id.
+        buffer[0] = (byte)((this.id >> 24) & 0xFF);
+        buffer[1] = (byte)((this.id >> 16) & 0xFF);
+        buffer[2] = (byte)((this.id >> 8) & 0xFF);
+        buffer[3] = (byte)(this.id & 0xFF);
+        // 5th byte for the receiverId + isAck.
+        buffer[4] = (byte)((receiverId - 1) & 0xFF);
+        buffer[4] |= (byte)(1 << 7);
+        // 6th byte for the senderId.
+        buffer[5] = (byte)((senderId - 1) & 0xFF);
+        // 7th byte for the number of selective ack words.
+        buffer[6] = (byte)(this.selectiveAcks.length & 0xFF);
+        // 4 bytes for the credits.
+        buffer[7] = (byte)((this.credits >> 24) & 0xFF);
+        buffer[8] = (byte)((this.credits >> 16) & 0xFF);
+        buffer[9] = (byte)((this.credits >> 8) & 0xFF);
+        buffer[10] = (byte)(this.credits & 0xFF);
+        // 8 bytes for each selective ack word.
+        var currentLength = SelectiveAckPacketImpl.ACK_HEADER_SIZE;
+        for (long word : this.selectiveAcks) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[currentLength++] = (byte)((word >> shift) & 0xFF);
+            }
+        }
+        return buffer;
+    }
+
+    @Override
+    public void writeTo(final ByteBuffer buffer) {
+        buffer.putInt(this.id);
+        buffer.put((byte)(((receiverId - 1) & 0xFF) | (1 << 7)));
+        buffer.put((byte)((senderId - 1) & 0xFF));
+        buffer.put((byte)(this.selectiveAcks.length & 0xFF));
+        buffer.putInt(this.credits);
+        for (long word : this.selectiveAcks) {
+            buffer.putLong(word);
+        }
+    }
+
+    @Override
+    public void release() {
+        // Nothing to release.
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (this.getClass() != obj.getClass()) {
+            return false;
+        }
+        return this.getId() == ((Packet)obj).getId()
+                && this.getSenderId() == ((Packet)obj).getSenderId()
+                && this.getReceiverId() == ((Packet)obj).getReceiverId()
+                && this.isAck() == ((Packet)obj).isAck();
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(this.id)
+                + Integer.hashCode(this.senderId)
+                + Integer.hashCode(this.receiverId)
+                + Boolean.hashCode(this.isAck());
+    }
+
+}